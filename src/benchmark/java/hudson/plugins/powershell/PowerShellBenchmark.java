@@ -0,0 +1,59 @@
+package hudson.plugins.powershell;
+
+import java.io.File;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Benchmarks of the per-step paths of {@link PowerShell}.
+ */
+@JmhBenchmark
+public class PowerShellBenchmark {
+
+    public static class BuilderState extends JmhBenchmarkState {
+
+        PowerShell powerShell;
+
+        FilePath script;
+
+        @Override
+        public void setup() throws Exception {
+            powerShell = new PowerShell("Write-Output 'Hello World!'", true, false, null);
+            script = new FilePath(new File(getJenkins().getRootDir(), "jenkins.ps1"));
+        }
+    }
+
+    @Benchmark
+    public String[] buildCommandLine(BuilderState state) {
+        return state.powerShell.buildCommandLine(state.script);
+    }
+
+    @Benchmark
+    public String[] buildEncodedCommandLine(BuilderState state) {
+        return state.powerShell.buildEncodedCommandLine(state.script, state.powerShell.getContents(), TaskListener.NULL,
+                new PowerShellTimings());
+    }
+
+    /**
+     * What {@link #buildEncodedCommandLine} saves over {@link #buildCommandLine}: writing and deleting the script.
+     */
+    @Benchmark
+    public boolean stageScriptFile(BuilderState state) throws Exception {
+        state.script.write(state.powerShell.getContents(), null);
+        return state.script.delete();
+    }
+
+    @Benchmark
+    public String getContents(BuilderState state) {
+        return state.powerShell.getContents();
+    }
+
+    @Benchmark
+    public boolean isRunningOnWindows(BuilderState state) {
+        return state.powerShell.isRunningOnWindows(state.script);
+    }
+}
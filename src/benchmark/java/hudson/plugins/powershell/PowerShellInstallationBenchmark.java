@@ -0,0 +1,88 @@
+package hudson.plugins.powershell;
+
+import java.util.Collections;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of {@link PowerShellInstallation} lookups and migration, with a growing number of installations.
+ */
+@JmhBenchmark
+public class PowerShellInstallationBenchmark {
+
+    public static class InstallationsState extends JmhBenchmarkState {
+
+        @Param({"1", "100", "10000"})
+        public int installations;
+
+        PowerShellInstallation.DescriptorImpl descriptor;
+
+        String lastName;
+
+        @Override
+        public void setup() throws Exception {
+            PowerShellInstallation[] array = new PowerShellInstallation[installations];
+            for (int i = 0; i < installations; i++) {
+                array[i] = new PowerShellInstallation("installation" + i, "home" + i, "pwsh", Collections.emptyList());
+                array[i].setLabel(i % 2 == 0 ? "windows" : "linux");
+                array[i].setVersion("7." + i);
+            }
+            descriptor = getJenkins().getDescriptorByType(PowerShellInstallation.DescriptorImpl.class);
+            descriptor.setInstallations(array);
+            lastName = array[installations - 1].getName();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LegacyInstallationState {
+
+        static final int BATCH = 1000;
+
+        /**
+         * {@value #BATCH} installations as saved by a configuration predating {@code executable}, each of which is
+         * migrated by {@code readResolve} when loaded.
+         */
+        String xml;
+
+        @Setup(Level.Iteration)
+        public void load() {
+            StringBuilder builder = new StringBuilder("<hudson.plugins.powershell.PowerShellInstallation-array>");
+            for (int i = 0; i < BATCH; i++) {
+                builder.append("<hudson.plugins.powershell.PowerShellInstallation><name>snap").append(i)
+                        .append("</name><home>/snap/bin/pwsh</home><properties/>")
+                        .append("</hudson.plugins.powershell.PowerShellInstallation>");
+            }
+            xml = builder.append("</hudson.plugins.powershell.PowerShellInstallation-array>").toString();
+        }
+    }
+
+    @Benchmark
+    public PowerShellInstallation getInstallation(InstallationsState state) {
+        return state.descriptor.getInstallation(state.lastName);
+    }
+
+    @Benchmark
+    public PowerShellInstallation getAnyInstallation(InstallationsState state) {
+        return state.descriptor.getAnyInstallation(PowerShellInstallation.DEFAULT_LINUX_NAME);
+    }
+
+    @Benchmark
+    public PowerShellInstallation selectInstallation(InstallationsState state) {
+        return state.descriptor.selectInstallation(state.getJenkins(), PowerShellInstallation.DEFAULT_LINUX_NAME, "7");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LegacyInstallationState.BATCH)
+    public Object readResolve(LegacyInstallationState state) {
+        return Jenkins.XSTREAM2.fromXML(state.xml);
+    }
+}
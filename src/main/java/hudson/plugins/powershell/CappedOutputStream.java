@@ -0,0 +1,183 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copies output up to a size budget, and compresses all of it into a spill file as it arrives, or all of the output
+ * before filtering, see {@link #spilling}.
+ * <p>
+ * The first bytes are written through as they come. Once the budget is exhausted, only the last bytes are kept in
+ * a ring buffer and written out by {@link #finish()}, preceded by the number of bytes left out. Memory use is
+ * bounded by {@link #MAX_TAIL}, whatever the size of the output.
+ */
+final class CappedOutputStream extends OutputStream {
+
+    /** Upper bound of the tail kept in memory */
+    static final int MAX_TAIL = 1024 * 1024;
+
+    private final OutputStream out;
+
+    private final File spillFile;
+
+    private final OutputStream spill;
+
+    private final long head;
+
+    private final byte[] tail;
+
+    /** Next position in {@link #tail} */
+    private int position;
+
+    private long written;
+
+    /** Whether the spill file was closed, by {@link #finish()} or {@link #discard()} */
+    private boolean closed;
+
+    /** Whether what is written to this stream goes to the spill file, rather than what {@link #spilling} gets */
+    private boolean spillWrites = true;
+
+    /**
+     * @param cap   number of bytes to copy, half of it from the start of the output and half from its end, up to
+     *              {@link #MAX_TAIL}
+     * @param spill file receiving the compressed output
+     */
+    CappedOutputStream(OutputStream out, long cap, File spill) throws IOException {
+        this.out = out;
+        this.spillFile = spill;
+        Files.createDirectories(spill.toPath().getParent());
+        this.spill = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(spill.toPath())), 64 * 1024);
+        this.tail = new byte[(int) Math.min(cap / 2, MAX_TAIL)];
+        this.head = cap - tail.length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (spillWrites) {
+            spill.write(b, off, len);
+        }
+        if (written < head) {
+            int n = (int) Math.min(len, head - written);
+            out.write(b, off, n);
+            written += n;
+            off += n;
+            len -= n;
+        }
+        written += len;
+        while (len > 0 && tail.length > 0) {
+            int n = Math.min(len, tail.length - position);
+            System.arraycopy(b, off, tail, position, n);
+            position = (position + n) % tail.length;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Returns a stream copying the output into the spill file before passing it on to {@code downstream}, which ends
+     * with this stream, e.g. through an output filter. The spill file then gets the output as it was printed rather
+     * than as it reaches this stream.
+     */
+    OutputStream spilling(OutputStream downstream) {
+        spillWrites = false;
+        return new Spilling(downstream);
+    }
+
+    /**
+     * Writes the tail of the output and closes the spill file, deleting it unless the output was truncated.
+     *
+     * @return the spill file if the output was truncated, {@code null} otherwise
+     */
+    @CheckForNull
+    File finish() throws IOException {
+        closed = true;
+        spill.close();
+        long kept = Math.max(0, written - head);
+        if (kept <= tail.length) {
+            // everything fit, the tail simply follows the head
+            int start = kept == tail.length ? position : 0;
+            writeTail(start, (int) kept);
+            Files.deleteIfExists(spillFile.toPath());
+            return null;
+        }
+
+        // start the tail on a new line
+        int start = position;
+        int length = tail.length;
+        for (int i = 0; i < tail.length && i < 4096; i++) {
+            if (tail[(position + i) % tail.length] == '\n') {
+                start = (position + i + 1) % tail.length;
+                length = tail.length - i - 1;
+                break;
+            }
+        }
+        String message = System.lineSeparator() + Messages.PowerShell_OutputTruncated(written - head - length) + System.lineSeparator();
+        out.write(message.getBytes(StandardCharsets.UTF_8));
+        writeTail(start, length);
+        out.flush();
+        return spillFile;
+    }
+
+    /**
+     * Closes and deletes the spill file, unless {@link #finish()} was called. For steps that fail before their output
+     * is complete, whose spill file would otherwise stay open and behind.
+     */
+    void discard() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            spill.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        try {
+            Files.deleteIfExists(spillFile.toPath());
+        } catch (IOException e) {
+            // left for the workspace cleanup
+        }
+    }
+
+    private void writeTail(int start, int length) throws IOException {
+        int first = Math.min(length, tail.length - start);
+        out.write(tail, start, first);
+        out.write(tail, 0, length - first);
+    }
+
+    private final class Spilling extends FilterOutputStream {
+
+        private Spilling(OutputStream downstream) {
+            super(downstream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            spill.write(b, off, len);
+            out.write(b, off, len);
+        }
+    }
+}
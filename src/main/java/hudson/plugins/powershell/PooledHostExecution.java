@@ -0,0 +1,120 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs a PowerShell script in a host taken from the agent's {@link PowerShellHostPool}.
+ * <p>
+ * Writes the script next to the workspace, runs it and deletes it again, all in a single call to the agent.
+ * Waiting for a host counts as {@link PowerShellTimings#STARTUP}. When given a session, the script runs in the
+ * session's runspace, see {@link PowerShellHost#runInSession}.
+ */
+final class PooledHostExecution extends MasterToSlaveCallable<PowerShellExecution.Result, IOException> {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    private final String executable;
+    private final boolean useProfile;
+    private final boolean windows;
+    private final String contents;
+    private final String workingDirectory;
+    private final Map<String, String> environment;
+    private final PowerShellHostPool.Settings settings;
+    private final String session;
+    private final boolean endSession;
+    private final PowerShellOutputFilter filter;
+    private final PowerShellExecution.OutputBudget budget;
+    private final TaskListener listener;
+
+    /**
+     * @param session    identifies the session to run the script in, {@code null} to use a fresh runspace
+     * @param endSession whether the session ends with this script
+     * @param filter     filter of the output, {@code null} to copy it as it is
+     * @param budget     size limit of the output, {@code null} if unlimited
+     */
+    PooledHostExecution(String executable, boolean useProfile, boolean windows, String contents,
+                        String workingDirectory, Map<String, String> environment,
+                        PowerShellHostPool.Settings settings, @CheckForNull String session, boolean endSession,
+                        @CheckForNull PowerShellOutputFilter filter,
+                        @CheckForNull PowerShellExecution.OutputBudget budget, TaskListener listener) {
+        this.executable = executable;
+        this.useProfile = useProfile;
+        this.windows = windows;
+        this.contents = contents;
+        this.workingDirectory = workingDirectory;
+        this.environment = new HashMap<>(environment);
+        this.settings = settings;
+        this.session = session;
+        this.endSession = endSession;
+        this.filter = filter;
+        this.budget = budget;
+        this.listener = listener;
+    }
+
+    @Override
+    public PowerShellExecution.Result call() throws IOException {
+        PowerShellTimings timings = new PowerShellTimings();
+        long start = System.nanoTime();
+        File script = File.createTempFile("jenkins", ".ps1", new File(workingDirectory));
+        try {
+            Files.writeString(script.toPath(), contents, Charset.defaultCharset());
+            PowerShellResults.prepareLocally(environment);
+            start = timings.recordSince(PowerShellTimings.STAGING, start);
+
+            PowerShellHostPool pool = PowerShellHostPool.get();
+            PowerShellHost.Key key = new PowerShellHost.Key(executable, useProfile, windows);
+            PowerShellHost host = session != null ? pool.acquireSession(session, key, settings) : pool.acquire(key, settings);
+            boolean reusable = false;
+            CappedOutputStream capped = null;
+            try {
+                capped = budget != null ? budget.decorate(listener.getLogger()) : null;
+                final var filtered = filter != null ? filter.decorate(capped != null ? capped : listener.getLogger()) : null;
+                final OutputStream sink = filtered != null ? filtered : capped != null ? capped : listener.getLogger();
+                TimedOutputStream out = new TimedOutputStream(capped != null ? capped.spilling(sink) : sink);
+                int exitCode;
+                try {
+                    exitCode = session != null
+                            ? host.runInSession(workingDirectory, script.getAbsolutePath(), environment, out)
+                            : host.run(workingDirectory, script.getAbsolutePath(), environment, out);
+                } finally {
+                    if (filtered != null) {
+                        filtered.finish();
+                    }
+                }
+                File spill = capped != null ? capped.finish() : null;
+                start = PowerShellExecution.recordExecution(timings, start, out.getFirstOutput());
+                reusable = true;
+                return new PowerShellExecution.Result(exitCode, timings, spill != null ? spill.getName() : null,
+                        PowerShellResults.readLocally(environment, listener));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new InterruptedIOException("Interrupted while running " + script).initCause(e);
+            } finally {
+                if (capped != null) {
+                    capped.discard();
+                }
+                if (session != null) {
+                    pool.releaseSession(session, host, reusable, endSession);
+                } else {
+                    pool.release(host, reusable);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(script.toPath());
+            timings.recordSince(PowerShellTimings.CLEANUP, start);
+        }
+    }
+}
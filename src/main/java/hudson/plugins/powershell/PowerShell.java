@@ -2,8 +2,11 @@ package hudson.plugins.powershell;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.AbortException;
 import hudson.Extension;
+import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.Functions;
 import hudson.Launcher;
 import hudson.Util;
 import hudson.model.AbstractBuild;
@@ -12,21 +15,32 @@ import hudson.model.BuildListener;
 import hudson.model.Computer;
 import hudson.model.Item;
 import hudson.model.Node;
+import hudson.model.Result;
 import hudson.model.TaskListener;
+import hudson.slaves.WorkspaceList;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.tasks.CommandInterpreter;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
-import org.apache.commons.lang3.SystemUtils;
+import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.verb.POST;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Invokes PowerShell from Jenkins.
@@ -35,6 +49,8 @@ import java.util.List;
  */
 public class PowerShell extends CommandInterpreter {
 
+    private static final Logger LOGGER = Logger.getLogger(PowerShell.class.getName());
+
     /** boolean switch setting -NoProfile */
     private final boolean useProfile;
 
@@ -42,10 +58,38 @@ public class PowerShell extends CommandInterpreter {
 
     private final boolean stopOnError;
 
-    private transient TaskListener listener;
-
     private String installation;
 
+    /** Lowest version of PowerShell the step accepts when it does not name an installation, {@code null} for any */
+    private String minimumVersion;
+
+    /**
+     * Edition of PowerShell the step requires, {@link PowerShellVersion#CORE} or {@link PowerShellVersion#DESKTOP},
+     * {@code null} for any
+     */
+    private String edition;
+
+    /** Runs the script in a warm host taken from the agent's {@link PowerShellHostPool} */
+    private boolean usePooledHost;
+
+    /** Runs the script in a pooled host session shared with the adjacent steps, see {@link PowerShellSessions} */
+    private boolean shareSession;
+
+    /** Filter of the output, {@code null} to use the one of the installation */
+    private PowerShellOutputFilter outputFilter;
+
+    /** Size of the output copied to the build log in kilobytes, 0 for no limit */
+    private int maxOutputSize;
+
+    /** Skips the step when its inputs did not change, {@code null} to always run it */
+    private PowerShellStepCache stepCache;
+
+    /** Runs the script once per input in separate processes, {@code null} to run it once */
+    private PowerShellFanOut fanOut;
+
+    /** Where the script comes from, {@code null} for the command of the step */
+    private PowerShellScriptSource scriptSource;
+
     @DataBoundConstructor
     public PowerShell(String command, boolean stopOnError, boolean useProfile, Integer unstableReturn) {
         super(command);
@@ -57,8 +101,364 @@ public class PowerShell extends CommandInterpreter {
     @Override
     public boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener) throws InterruptedException
     {
-        this.listener = listener;
-        return super.perform(build, launcher, listener);
+        FilePath ws = build.getWorkspace();
+        if (ws == null) {
+            listener.fatalError(Messages.PowerShell_NoWorkspace());
+            return false;
+        }
+
+        PowerShellTimings timings = new PowerShellTimings();
+        int exitCode;
+        try {
+            final var filter = getEffectiveOutputFilter(ws);
+            final var contents = getContents(filter, loadScript(ws, listener, timings));
+            EnvVars envVars = build.getEnvironment(listener);
+            envVars.putAll(build.getBuildVariables());
+            final var version = probeVersion(ws, launcher, envVars, listener, timings);
+            if (version != null) {
+                version.buildEnvironment(envVars);
+            }
+            final var lookup = lookUpStepCache(build, ws, contents, listener, timings);
+            if (lookup != null && lookup.hit()) {
+                listener.getLogger().println(Messages.PowerShell_StepCacheHit(lookup.key()));
+                PowerShellResultsAction.record(build, lookup.results());
+                return true;
+            }
+            final Map<String, String> results = new LinkedHashMap<>();
+            if ((usePooledHost || shareSession) && fanOut == null) {
+                exitCode = performInPooledHost(build, ws, launcher, listener, envVars, filter, contents, timings, results);
+            } else if (launcher instanceof Launcher.DecoratedLauncher) {
+                // build wrappers may have decorated the launcher, so the process has to be started through it
+                exitCode = performWithLauncher(build, ws, launcher, listener, envVars, filter, contents, timings, results);
+            } else {
+                exitCode = performOnAgent(build, ws, launcher, listener, envVars, filter, contents, timings, results);
+            }
+            if (lookup != null && exitCode == 0) {
+                storeStepCache(ws, lookup, results, listener, timings);
+            }
+        } catch (AbortException e) {
+            listener.fatalError(e.getMessage());
+            return false;
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            Functions.printStackTrace(e, listener.fatalError(Messages.PowerShell_CommandFailed()));
+            return false;
+        } finally {
+            if (!timings.getPhases().isEmpty()) {
+                listener.getLogger().println(Messages.PowerShell_Timings(timings));
+                PowerShellTimingAction.record(build, timings);
+                // only steps that launched PowerShell tell anything about its startup
+                if (timings.getPhases().containsKey(PowerShellTimings.STARTUP)
+                        || timings.getPhases().containsKey(PowerShellTimings.SCRIPT)) {
+                    final var resolved = getPowerShellInstallation(ws);
+                    PowerShellStartupStats.get().record(build.getBuiltOnStr(), resolved != null ? resolved.getName() : null,
+                            useProfile, timings);
+                }
+            }
+        }
+        return isSuccessful(build, exitCode);
+    }
+
+    /**
+     * Runs the step with a single call to the agent, see {@link PowerShellExecution}.
+     */
+    private int performOnAgent(AbstractBuild<?,?> build, FilePath ws, Launcher launcher, BuildListener listener,
+                               EnvVars envVars, @CheckForNull PowerShellOutputFilter filter, String contents,
+                               PowerShellTimings timings, Map<String, String> results)
+            throws IOException, InterruptedException {
+        final String[] commandLine;
+        FilePath script = null;
+        FilePath root = null;
+        if (isEncodedCommand(contents)) {
+            commandLine = buildEncodedCommandLine(ws, contents, listener, timings);
+        } else {
+            root = getCacheRoot(build);
+            script = root != null
+                    ? PowerShellScriptCache.getScript(root, contents, getFileExtension())
+                    : ws.child("jenkins" + UUID.randomUUID() + getFileExtension());
+            commandLine = buildCommandLine(script, listener, timings);
+        }
+        final var moduleCache = getModuleCache(build, ws, commandLine[0], envVars);
+        final var spillDirectory = WorkspaceList.tempDir(ws);
+        addResultsFile(envVars, spillDirectory);
+        final var result = PowerShellChannelCalls.act(ws, new PowerShellExecution(Arrays.asList(commandLine),
+                script != null ? script.getRemote() : null, contents, root != null, ws.getRemote(),
+                moduleCache != null ? moduleCache.getRemote() : null, envVars, filter,
+                getOutputBudget(spillDirectory), getFanOutPlan(), listener));
+        timings.addAll(result.timings());
+        PowerShellResultsAction.record(build, result.results());
+        results.putAll(result.results());
+        archiveOutput(build, spillDirectory, result.spill(), launcher, listener);
+        return result.exitCode();
+    }
+
+    /**
+     * Same as {@link CommandInterpreter#perform}, except that the script may be taken from the node's
+     * {@link PowerShellScriptCache}, in which case it is left in place afterwards.
+     */
+    private int performWithLauncher(AbstractBuild<?,?> build, FilePath ws, Launcher launcher, BuildListener listener,
+                                    EnvVars envVars, @CheckForNull PowerShellOutputFilter filter, String contents,
+                                    PowerShellTimings timings, Map<String, String> results)
+            throws IOException, InterruptedException {
+        final var encoded = isEncodedCommand(contents);
+        final var root = encoded ? null : getCacheRoot(build);
+        FilePath script = null;
+        CappedOutputStream capped = null;
+        long start = System.nanoTime();
+        try {
+            if (!encoded) {
+                script = root != null ? PowerShellScriptCache.stage(root, contents, getFileExtension()) : createScriptFile(ws);
+                timings.recordSince(PowerShellTimings.STAGING, start);
+            }
+
+            final var commandLine = encoded
+                    ? buildEncodedCommandLine(ws, contents, listener, timings)
+                    : buildCommandLine(script, listener, timings);
+            // the cache fills as the steps go, without a separate warmup call
+            getModuleCache(build, ws, commandLine[0], envVars);
+            final var tmp = WorkspaceList.tempDir(ws);
+            final var resultsFile = addResultsFile(envVars, tmp);
+            if (tmp != null) {
+                tmp.mkdirs();
+            }
+            // the output is read on the controller, so that is where it gets compressed
+            final var spillDirectory = new FilePath(build.getRootDir());
+            final var budget = getOutputBudget(spillDirectory);
+            capped = budget != null ? budget.decorate(listener.getLogger()) : null;
+            final var filtered = filter != null ? filter.decorate(capped != null ? capped : listener.getLogger()) : null;
+            final OutputStream sink = filtered != null ? filtered : capped != null ? capped : listener.getLogger();
+            TimedOutputStream out = new TimedOutputStream(capped != null ? capped.spilling(sink) : sink);
+            start = System.nanoTime();
+            final var masks = PowerShellExecution.maskEncodedCommand(commandLine.length, encoded);
+            final var plan = getFanOutPlan();
+            int exitCode;
+            try {
+                exitCode = plan != null
+                        ? plan.run(launcher, Arrays.asList(commandLine), masks, envVars, ws, out, listener)
+                        : join(launcher.launch()
+                                .cmds(commandLine)
+                                .masks(masks)
+                                .envs(envVars)
+                                .stdout(out)
+                                .pwd(ws)
+                                .start());
+            } finally {
+                if (filtered != null) {
+                    filtered.finish();
+                }
+            }
+            final var spill = capped != null ? capped.finish() : null;
+            start = PowerShellExecution.recordExecution(timings, start, out.getFirstOutput());
+            if (resultsFile != null) {
+                results.putAll(PowerShellChannelCalls.act(resultsFile, new PowerShellResults.Read(listener)));
+                PowerShellResultsAction.record(build, results);
+            }
+            archiveOutput(build, spillDirectory, spill != null ? spill.getName() : null, launcher, listener);
+            return exitCode;
+        } finally {
+            if (capped != null) {
+                capped.discard();
+            }
+            if (script != null && root == null) {
+                try {
+                    script.delete();
+                } catch (IOException e) {
+                    Functions.printStackTrace(e, listener.error(Messages.PowerShell_UnableToDelete(script)));
+                }
+                timings.recordSince(PowerShellTimings.CLEANUP, start);
+            }
+        }
+    }
+
+    private int performInPooledHost(AbstractBuild<?,?> build, FilePath ws, Launcher launcher, BuildListener listener,
+                                    EnvVars envVars, @CheckForNull PowerShellOutputFilter filter, String contents,
+                                    PowerShellTimings timings, Map<String, String> results)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        final var executable = getPowerShellExecutable(ws, listener, timings);
+        timings.recordSince(PowerShellTimings.RESOLUTION, start);
+        final var descriptor = Jenkins.get().getDescriptorByType(DescriptorImpl.class);
+
+        String session = null;
+        boolean endSession = false;
+        if (shareSession) {
+            session = PowerShellSessions.getSession(build, this);
+            endSession = PowerShellSessions.isLast(build, this);
+            listener.getLogger().println(Messages.PowerShell_Session(session, executable));
+            PowerShellSessions.opened(build, session, ws.getChannel());
+        } else {
+            listener.getLogger().println(Messages.PowerShell_PooledHost(executable));
+        }
+        try {
+            final var spillDirectory = WorkspaceList.tempDir(ws);
+            addResultsFile(envVars, spillDirectory);
+            final var result = PowerShellChannelCalls.act(ws, new PooledHostExecution(executable, useProfile,
+                    isRunningOnWindows(ws), contents, ws.getRemote(), envVars, descriptor.getHostPoolSettings(),
+                    session, endSession, filter, getOutputBudget(spillDirectory), listener));
+            timings.addAll(result.timings());
+            PowerShellResultsAction.record(build, result.results());
+            results.putAll(result.results());
+            archiveOutput(build, spillDirectory, result.spill(), launcher, listener);
+            return result.exitCode();
+        } finally {
+            if (endSession) {
+                PowerShellSessions.ended(build, session);
+            }
+        }
+    }
+
+    /**
+     * Gets the step ready to run on {@code node} before it starts: resolves its installation, running the tool
+     * installers it needs, probes its version and, when scripts are cached, stages its script. All of these are
+     * cached, so the step finds them in place, or waits for them if they are still under way. Failures are not
+     * cached: the step does the failed part again when it runs, with its own listener, and reports it there.
+     *
+     * @param listener receives the output of the tool installers
+     */
+    void prewarm(@NonNull Node node, @NonNull TaskListener listener) throws IOException, InterruptedException {
+        FilePath root = node.getRootPath();
+        if (root == null) {
+            return;
+        }
+        final var executable = lookUpPowerShellExecutable(root, listener, new PowerShellTimings());
+        final var computer = node.toComputer();
+        if (computer != null) {
+            PowerShellVersion.of(root, executable, node.createLauncher(listener), computer.buildEnvironment(listener));
+        }
+        // pooled hosts and scripts loaded from a source do not use the script cache
+        if ((usePooledHost || shareSession) && fanOut == null || scriptSource != null || !isCacheScripts()) {
+            return;
+        }
+        final var contents = getContents(getEffectiveOutputFilter(root), command);
+        if (!isEncodedCommand(contents)) {
+            PowerShellScriptCache.stage(root, contents, getFileExtension());
+        }
+    }
+
+    private static boolean isCacheScripts() {
+        return Jenkins.get().getDescriptorByType(DescriptorImpl.class).isCacheScripts();
+    }
+
+    /**
+     * Probes the version of the PowerShell the step runs, once per node, and checks it against the
+     * {@link #getMinimumVersion() minimum version} and {@link #getEdition() edition} of the step, so that a step
+     * that cannot run fails before anything is launched for it. A step without either only gets the version if it
+     * has already been probed, so as not to wait for it.
+     *
+     * @return {@code null} if the version could not be probed, or is not yet known
+     * @throws AbortException if the version does not satisfy the step
+     */
+    @CheckForNull
+    private PowerShellVersion probeVersion(FilePath ws, Launcher launcher, EnvVars envVars, BuildListener listener,
+                                           PowerShellTimings timings) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        final var executable = getPowerShellExecutable(ws, listener, timings);
+        if (minimumVersion == null && edition == null) {
+            final var version = PowerShellVersion.ifProbed(ws, executable, launcher, envVars);
+            timings.recordSince(PowerShellTimings.RESOLUTION, start);
+            return version;
+        }
+        final var version = PowerShellVersion.of(ws, executable, launcher, envVars);
+        timings.recordSince(PowerShellTimings.RESOLUTION, start);
+        final var required = (edition != null ? edition + " " : "") + (minimumVersion != null ? minimumVersion : "");
+        if (version == null) {
+            throw new AbortException(Messages.PowerShell_VersionUnknown(executable, required.trim()));
+        }
+        if (!version.satisfies(minimumVersion, edition)) {
+            throw new AbortException(Messages.PowerShell_VersionMismatch(executable, version, required.trim()));
+        }
+        return version;
+    }
+
+    /**
+     * Looks up the step in the {@link PowerShellStepCache} of the node, restoring its outputs on a hit.
+     *
+     * @return {@code null} if the step is not cached
+     */
+    @CheckForNull
+    private PowerShellStepCache.Lookup lookUpStepCache(AbstractBuild<?,?> build, FilePath ws, String contents,
+                                                       BuildListener listener, PowerShellTimings timings)
+            throws IOException, InterruptedException {
+        Node node = build.getBuiltOn();
+        FilePath root = node != null ? node.getRootPath() : null;
+        if (stepCache == null || root == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        final var executable = getPowerShellExecutable(ws, listener, timings);
+        timings.recordSince(PowerShellTimings.RESOLUTION, start);
+        start = System.nanoTime();
+        final var lookup = stepCache.lookup(ws, root, contents, executable, fanOut);
+        timings.recordSince(PowerShellTimings.STAGING, start);
+        return lookup;
+    }
+
+    /**
+     * Keeps the outputs and the results of the step in the {@link PowerShellStepCache} of the node. Failing to do so does not fail
+     * the step, the next run will just not be skipped.
+     */
+    private void storeStepCache(FilePath ws, PowerShellStepCache.Lookup lookup, Map<String, String> results,
+                                BuildListener listener, PowerShellTimings timings) throws InterruptedException {
+        final var start = System.nanoTime();
+        try {
+            final var count = stepCache.store(ws, lookup, results);
+            listener.getLogger().println(Messages.PowerShell_StepCacheStored(count, lookup.key()));
+        } catch (IOException e) {
+            Functions.printStackTrace(e, listener.error(Messages.PowerShell_StepCacheFailed()));
+        }
+        timings.recordSince(PowerShellTimings.CLEANUP, start);
+    }
+
+    /**
+     * Whether the script is short enough to be passed on the command line, see
+     * {@link DescriptorImpl#getEncodedCommandThreshold()}.
+     */
+    private static boolean isEncodedCommand(String contents) {
+        final var threshold = Jenkins.get().getDescriptorByType(DescriptorImpl.class).getEncodedCommandThreshold();
+        return threshold > 0 && contents.length() <= threshold;
+    }
+
+    /**
+     * Root of the {@link PowerShellScriptCache} to stage the script in, {@code null} to use a temporary file.
+     */
+    @CheckForNull
+    private static FilePath getCacheRoot(AbstractBuild<?,?> build) {
+        if (!isCacheScripts()) {
+            return null;
+        }
+        Node node = build.getBuiltOn();
+        return node != null ? node.getRootPath() : null;
+    }
+
+    /**
+     * Directory of the {@link PowerShellModuleCache} of the installation used by the step, {@code null} if the
+     * installation does not keep one. The environment of the step is pointed at it, unless the build already set
+     * {@value PowerShellModuleCache#ENVIRONMENT_VARIABLE}.
+     * <p>
+     * Pooled hosts do not need it, as they keep the module analysis cache in memory from one step to the next.
+     */
+    @CheckForNull
+    private FilePath getModuleCache(AbstractBuild<?,?> build, FilePath ws, String executable, EnvVars envVars) {
+        final var tool = getPowerShellInstallation(ws);
+        if (tool == null || !tool.isPersistentModuleCache() || envVars.containsKey(PowerShellModuleCache.ENVIRONMENT_VARIABLE)) {
+            return null;
+        }
+        Node node = build.getBuiltOn();
+        FilePath root = node != null ? node.getRootPath() : null;
+        if (root == null) {
+            return null;
+        }
+        FilePath directory = PowerShellModuleCache.getDirectory(root, tool.getName(), executable);
+        envVars.put(PowerShellModuleCache.ENVIRONMENT_VARIABLE, directory.child(PowerShellModuleCache.CACHE_FILE).getRemote());
+        return directory;
+    }
+
+    private boolean isSuccessful(AbstractBuild<?,?> build, int exitCode) {
+        if (isErrorlevelForUnstableBuild(exitCode)) {
+            build.setResult(Result.UNSTABLE);
+            return true;
+        }
+        return exitCode == 0;
     }
 
     public boolean isStopOnError() {
@@ -98,11 +498,212 @@ public class PowerShell extends CommandInterpreter {
         return installation;
     }
 
+    @DataBoundSetter
+    public void setMinimumVersion(String minimumVersion) {
+        this.minimumVersion = Util.fixEmptyAndTrim(minimumVersion);
+    }
+
+    public String getMinimumVersion() {
+        return minimumVersion;
+    }
+
+    @DataBoundSetter
+    public void setEdition(String edition) {
+        this.edition = Util.fixEmptyAndTrim(edition);
+    }
+
+    public String getEdition() {
+        return edition;
+    }
+
+    public boolean isUsePooledHost() {
+        return usePooledHost;
+    }
+
+    @DataBoundSetter
+    public void setUsePooledHost(boolean usePooledHost) {
+        this.usePooledHost = usePooledHost;
+    }
+
+    public boolean isShareSession() {
+        return shareSession;
+    }
+
+    @DataBoundSetter
+    public void setShareSession(boolean shareSession) {
+        this.shareSession = shareSession;
+    }
+
+    @CheckForNull
+    public PowerShellOutputFilter getOutputFilter() {
+        return outputFilter;
+    }
+
+    @DataBoundSetter
+    public void setOutputFilter(@CheckForNull PowerShellOutputFilter outputFilter) {
+        this.outputFilter = outputFilter;
+    }
+
+    public int getMaxOutputSize() {
+        return maxOutputSize;
+    }
+
+    @DataBoundSetter
+    public void setMaxOutputSize(int maxOutputSize) {
+        this.maxOutputSize = Math.max(0, maxOutputSize);
+    }
+
+    @CheckForNull
+    public PowerShellStepCache getStepCache() {
+        return stepCache;
+    }
+
+    @DataBoundSetter
+    public void setStepCache(@CheckForNull PowerShellStepCache stepCache) {
+        this.stepCache = stepCache;
+    }
+
+    @CheckForNull
+    public PowerShellScriptSource getScriptSource() {
+        return scriptSource;
+    }
+
+    @DataBoundSetter
+    public void setScriptSource(@CheckForNull PowerShellScriptSource scriptSource) {
+        this.scriptSource = scriptSource;
+    }
+
+    /**
+     * The script of the step: its command, or else the script of its {@link PowerShellScriptSource}, which is only
+     * loaded now.
+     */
+    private String loadScript(FilePath ws, TaskListener listener, PowerShellTimings timings)
+            throws IOException, InterruptedException {
+        if (scriptSource == null) {
+            return command;
+        }
+        long start = System.nanoTime();
+        final var script = scriptSource.load(ws, listener);
+        timings.recordSince(PowerShellTimings.STAGING, start);
+        return script;
+    }
+
+    @CheckForNull
+    public PowerShellFanOut getFanOut() {
+        return fanOut;
+    }
+
+    @DataBoundSetter
+    public void setFanOut(@CheckForNull PowerShellFanOut fanOut) {
+        this.fanOut = fanOut;
+    }
+
+    @CheckForNull
+    private PowerShellFanOut.Plan getFanOutPlan() {
+        return fanOut != null ? new PowerShellFanOut.Plan(fanOut, stopOnError, unstableReturn) : null;
+    }
+
+    /**
+     * Size limit of the output, {@code null} if the step has none.
+     *
+     * @param directory directory receiving the full output when the limit is exceeded
+     */
+    @CheckForNull
+    private PowerShellExecution.OutputBudget getOutputBudget(@CheckForNull FilePath directory) {
+        if (maxOutputSize <= 0 || directory == null) {
+            return null;
+        }
+        return new PowerShellExecution.OutputBudget(maxOutputSize * 1024L, directory.getRemote());
+    }
+
+    /**
+     * Gives the script a {@link PowerShellResults} file to write its results to.
+     *
+     * @return the results file, {@code null} if the workspace has no temporary directory
+     */
+    @CheckForNull
+    private static FilePath addResultsFile(EnvVars envVars, @CheckForNull FilePath directory) {
+        final var file = PowerShellResults.newFile(directory);
+        if (file != null) {
+            envVars.put(PowerShellResults.VARIABLE, file.getRemote());
+        }
+        return file;
+    }
+
+    /**
+     * Archives the full output of a step whose output was truncated, and removes it from {@code directory}.
+     *
+     * @param spill name of the compressed output in {@code directory}, {@code null} if there is none
+     */
+    private static void archiveOutput(AbstractBuild<?,?> build, FilePath directory, @CheckForNull String spill,
+                                      Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+        if (spill == null) {
+            return;
+        }
+        final var artifact = "powershell/" + spill;
+        try {
+            build.pickArtifactManager().archive(directory, launcher, listener, Map.of(artifact, spill));
+        } finally {
+            directory.child(spill).delete();
+        }
+        listener.getLogger().println(Messages.PowerShell_OutputArchived(artifact));
+    }
+
+    /**
+     * Filter of the output of the step: its own, or else the default of its installation.
+     */
+    @CheckForNull
+    private PowerShellOutputFilter getEffectiveOutputFilter(FilePath ws) {
+        if (outputFilter != null) {
+            return outputFilter;
+        }
+        final var tool = getPowerShellInstallation(ws);
+        return tool != null ? tool.getOutputFilter() : null;
+    }
+
+    /**
+     * Whether this step can run in the same session as {@code other}.
+     */
+    boolean sharesSessionWith(PowerShell other) {
+        return shareSession && other.shareSession && fanOut == null && other.fanOut == null
+                && useProfile == other.useProfile && Objects.equals(installation, other.installation);
+    }
+
     @Override
     public String[] buildCommandLine(FilePath script) {
+        return buildCommandLine(script, TaskListener.NULL, new PowerShellTimings());
+    }
 
-        final var installation = getPowerShellInstallation(script);
-        final var powerShellExecutable = getPowerShellExecutable(script, installation);
+    /**
+     * @param listener receives the output of tool installers run while resolving the installation
+     * @param timings  receives the time spent resolving the installation
+     */
+    String[] buildCommandLine(FilePath script, TaskListener listener, PowerShellTimings timings) {
+        List<String> args = buildArguments(script, listener, timings);
+        args.add("-File");
+        args.add(script.getRemote());
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Same as {@link #buildCommandLine(FilePath, TaskListener, PowerShellTimings)}, but passes the script itself with
+     * {@code -EncodedCommand} so that no script file is needed.
+     *
+     * @param ws       any path on the node running the script
+     * @param contents the script, as returned by {@link #getContents(PowerShellOutputFilter)}
+     */
+    String[] buildEncodedCommandLine(FilePath ws, String contents, TaskListener listener, PowerShellTimings timings) {
+        List<String> args = buildArguments(ws, listener, timings);
+        args.add("-EncodedCommand");
+        args.add(PowerShellHost.encodeCommand(contents));
+        return args.toArray(new String[0]);
+    }
+
+    private List<String> buildArguments(FilePath path, TaskListener listener, PowerShellTimings timings) {
+
+        long start = System.nanoTime();
+        final var powerShellExecutable = getPowerShellExecutable(path, listener, timings);
+        timings.recordSince(PowerShellTimings.RESOLUTION, start);
 
         List<String> args = new ArrayList<>();
         args.add(powerShellExecutable);
@@ -110,38 +711,74 @@ public class PowerShell extends CommandInterpreter {
         if (!useProfile) {
             args.add("-NoProfile");
         }
-        if (isRunningOnWindows(script)) {
+        if (isRunningOnWindows(path)) {
             // ExecutionPolicy option does not work (and is not required) for non-Windows platforms
             // See https://github.com/PowerShell/PowerShell/issues/2742
             args.add("-ExecutionPolicy");
             args.add("Bypass");
         }
-        args.add("-File");
-        args.add(script.getRemote());
-        return args.toArray(new String[0]);
+        return args;
+    }
+
+    /**
+     * Resolves the executable of an installation for the node of {@code ws}, the same way the build step does,
+     * installing it if needed.
+     *
+     * @param installation name of the installation, {@code null} for the default one
+     */
+    @NonNull
+    static String resolveExecutable(@CheckForNull String installation, FilePath ws, TaskListener listener) {
+        PowerShell powerShell = new PowerShell("", false, true, null);
+        powerShell.setInstallation(installation);
+        return powerShell.getPowerShellExecutable(ws, listener, new PowerShellTimings());
     }
 
     @NonNull
-    private String getPowerShellExecutable(FilePath script, PowerShellInstallation installation) {
+    private String getPowerShellExecutable(FilePath script, TaskListener listener, PowerShellTimings timings) {
+        try {
+            return lookUpPowerShellExecutable(script, listener, timings);
+        } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            LOGGER.log(Level.FINE, "Failed to resolve PowerShell installation", e);
+            Functions.printStackTrace(e, listener.error(Messages.PowerShell_ResolutionFailed()));
+        }
+
+        // fallback to installed version on agent
+        return PowerShellInstallation.getDefaultPowershellWhenNoConfiguration(isRunningOnWindows(script));
+    }
+
+    @NonNull
+    private String lookUpPowerShellExecutable(FilePath script, TaskListener listener, PowerShellTimings timings)
+            throws IOException, InterruptedException {
+        Node node = filePathToNode(script);
+        if (node != null) {
+            // steps selecting by version may end up with another installation than those of the default one
+            String key = installation != null || minimumVersion == null ? installation : ">=" + minimumVersion;
+            return PowerShellExecutableCache.get().getExecutable(node, key,
+                    () -> resolvePowerShellExecutable(script, node, listener, timings));
+        }
+        return resolvePowerShellExecutable(script, null, listener, timings);
+    }
+
+    @NonNull
+    private String resolvePowerShellExecutable(FilePath script, @CheckForNull Node node, TaskListener listener,
+                                               PowerShellTimings timings) throws IOException, InterruptedException {
         String powerShellExecutable = null;
 
+        var installation = getPowerShellInstallation(script);
         if (installation != null) {
-            Node node = filePathToNode(script);
-            try {
-                if (node != null && installation.forNode(node, listener) != null) {
-                    installation = installation.forNode(node, listener);
-                }
-
-                final var home = installation.getPowershellHome();
-                if (home != null) {
-                    final var separator = isRunningOnWindows(script) ? "\\" : "/";
-                    powerShellExecutable = home + separator + installation.getPowerShellBinary();
-                } else  {
-                    powerShellExecutable = installation.getPowerShellBinary();
+            if (node != null) {
+                long start = System.nanoTime();
+                final var nodeInstallation = installation.forNode(node, listener);
+                timings.recordSince(PowerShellTimings.INSTALLATION, start);
+                if (nodeInstallation != null) {
+                    installation = nodeInstallation;
                 }
-            } catch (IOException | InterruptedException e) {
-                e.printStackTrace();
             }
+
+            powerShellExecutable = getExecutable(installation, isRunningOnWindows(script));
         }
 
         // fallback to installed version on agent
@@ -153,47 +790,77 @@ public class PowerShell extends CommandInterpreter {
         return powerShellExecutable;
     }
 
+    /**
+     * Path of the executable of an installation already translated for its node.
+     */
+    static String getExecutable(PowerShellInstallation installation, boolean windows) {
+        final var home = installation.getPowershellHome();
+        if (home != null) {
+            final var separator = windows ? "\\" : "/";
+            return home + separator + installation.getPowerShellBinary();
+        }
+        return installation.getPowerShellBinary();
+    }
+
     @Nullable
     private PowerShellInstallation getPowerShellInstallation(FilePath script) {
-        PowerShellInstallation powerShellInstallation;
-
         final var descriptor = Jenkins.get().getDescriptorByType(PowerShellInstallation.DescriptorImpl.class);
 
-        powerShellInstallation = descriptor.getInstallation(this.installation);
-        if (powerShellInstallation == null) {
-            if (isRunningOnWindows(script)) {
-                powerShellInstallation = descriptor.getAnyInstallation(PowerShellInstallation.DEFAULT_WINDOWS_NAME);
-            }
-            else {
-                powerShellInstallation = descriptor.getAnyInstallation(PowerShellInstallation.DEFAULT_LINUX_NAME);
-            }
+        final var powerShellInstallation = descriptor.getInstallation(this.installation);
+        if (powerShellInstallation != null) {
+            return powerShellInstallation;
         }
-
-        return powerShellInstallation;
+        return descriptor.selectInstallation(filePathToNode(script), isRunningOnWindows(script)
+                ? PowerShellInstallation.DEFAULT_WINDOWS_NAME
+                : PowerShellInstallation.DEFAULT_LINUX_NAME, minimumVersion);
     }
 
     @Override
     protected String getContents() {
+        return getContents(null);
+    }
+
+    /**
+     * @param filter filter of the output, which may need to switch off progress records
+     */
+    String getContents(@CheckForNull PowerShellOutputFilter filter) {
+        return getContents(filter, command);
+    }
+
+    /**
+     * @param script the script of the step, see {@link #loadScript}
+     */
+    private String getContents(@CheckForNull PowerShellOutputFilter filter, String script) {
         StringBuilder sb = new StringBuilder();
+        if (filter != null && filter.isDropProgress()) {
+            sb.append("$ProgressPreference=\"SilentlyContinue\"");
+            sb.append(System.lineSeparator());
+        }
         if (stopOnError) {
             sb.append("$ErrorActionPreference=\"Stop\"");
             sb.append(System.lineSeparator());
         }
-        sb.append(command);
+        sb.append(script);
         sb.append(System.lineSeparator());
         sb.append("exit $LastExitCode");
         return sb.toString();
     }
 
-    private boolean isRunningOnWindows(FilePath script) {
-        // Ideally this would use a property of the build/run, but unfortunately CommandInterpreter only gives us the
-        // FilePath, so we need to guess based on that.
-        if (!script.isRemote()) {
-            // Running locally, so we can just check the local OS
-            return SystemUtils.IS_OS_WINDOWS;
+    boolean isRunningOnWindows(FilePath script) {
+        return isWindows(script);
+    }
+
+    /**
+     * Whether the node {@code script} belongs to runs Windows.
+     */
+    static boolean isWindows(FilePath script) {
+        final var windows = PowerShellPlatform.isWindows(script);
+        if (windows != null) {
+            return windows;
         }
 
-        // Running remotely, guess based on the path. A path starting with something like "C:\" is Windows.
+        // The agent is not connected, so we need to guess based on the path. A path starting with something like
+        // "C:\" is Windows.
         String path = script.getRemote();
         return path.length() > 3 && path.charAt(1) == ':' && path.charAt(2) == '\\';
     }
@@ -210,12 +877,121 @@ public class PowerShell extends CommandInterpreter {
     @Extension
     public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
 
+        /**
+         * Encoding turns a character into more than 2.6 characters, and Windows limits command lines to 32767
+         * characters, leaving room for the rest of the command line.
+         */
+        static final int MAX_ENCODED_COMMAND_THRESHOLD = 8000;
+
+        private int hostPoolSize = 2;
+
+        private int hostIdleTimeout = 300;
+
+        private int hostRecycleAfter = 50;
+
+        private boolean cacheScripts;
+
+        /** Size limit of the script cache on each node, in megabytes */
+        private int scriptCacheSize = 100;
+
+        /** Scripts up to this many characters are passed with -EncodedCommand instead of a file, 0 to disable */
+        private int encodedCommandThreshold;
+
+        /** Size limit of the {@link PowerShellStepCache} on each node, in megabytes */
+        private int stepCacheSize = 1024;
+
+        /** Prepares the steps of a build in the background as soon as it starts, see {@link PowerShellPrewarmer} */
+        private boolean prewarm = true;
+
         public DescriptorImpl()
         {
             super();
             load();
         }
 
+        @Override
+        public boolean configure(StaplerRequest2 req, JSONObject json) {
+            req.bindJSON(this, json);
+            save();
+            return true;
+        }
+
+        public int getHostPoolSize() {
+            return hostPoolSize;
+        }
+
+        @DataBoundSetter
+        public void setHostPoolSize(int hostPoolSize) {
+            this.hostPoolSize = hostPoolSize;
+        }
+
+        public int getHostIdleTimeout() {
+            return hostIdleTimeout;
+        }
+
+        @DataBoundSetter
+        public void setHostIdleTimeout(int hostIdleTimeout) {
+            this.hostIdleTimeout = hostIdleTimeout;
+        }
+
+        public int getHostRecycleAfter() {
+            return hostRecycleAfter;
+        }
+
+        @DataBoundSetter
+        public void setHostRecycleAfter(int hostRecycleAfter) {
+            this.hostRecycleAfter = hostRecycleAfter;
+        }
+
+        public boolean isCacheScripts() {
+            return cacheScripts;
+        }
+
+        @DataBoundSetter
+        public void setCacheScripts(boolean cacheScripts) {
+            this.cacheScripts = cacheScripts;
+        }
+
+        public int getScriptCacheSize() {
+            return scriptCacheSize;
+        }
+
+        public boolean isPrewarm() {
+            return prewarm;
+        }
+
+        @DataBoundSetter
+        public void setPrewarm(boolean prewarm) {
+            this.prewarm = prewarm;
+        }
+
+        @DataBoundSetter
+        public void setScriptCacheSize(int scriptCacheSize) {
+            this.scriptCacheSize = scriptCacheSize;
+        }
+
+        public int getEncodedCommandThreshold() {
+            return encodedCommandThreshold;
+        }
+
+        @DataBoundSetter
+        public void setEncodedCommandThreshold(int encodedCommandThreshold) {
+            this.encodedCommandThreshold = Math.max(0, Math.min(encodedCommandThreshold, MAX_ENCODED_COMMAND_THRESHOLD));
+        }
+
+        public int getStepCacheSize() {
+            return stepCacheSize;
+        }
+
+        @DataBoundSetter
+        public void setStepCacheSize(int stepCacheSize) {
+            this.stepCacheSize = stepCacheSize;
+        }
+
+        PowerShellHostPool.Settings getHostPoolSettings() {
+            return new PowerShellHostPool.Settings(hostPoolSize, hostIdleTimeout, hostRecycleAfter);
+        }
+
         @Override
         public String getHelpFile() {
             return "/plugin/powershell/help.html";
@@ -247,5 +1023,16 @@ public class PowerShell extends CommandInterpreter {
             }
             return model;
         }
+
+        @POST
+        public ListBoxModel doFillEditionItems() {
+            Jenkins.get().checkPermission(Item.CONFIGURE);
+
+            ListBoxModel model = new ListBoxModel();
+            model.add(Messages.PowerShell_AnyEdition(), "");
+            model.add(PowerShellVersion.CORE);
+            model.add(PowerShellVersion.DESKTOP);
+            return model;
+        }
     }
 }
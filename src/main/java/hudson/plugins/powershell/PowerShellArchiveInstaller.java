@@ -0,0 +1,368 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import hudson.util.FormValidation;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Installs PowerShell from a {@code .zip}, {@code .tar.gz} or {@code .tgz} archive, such as the release archives of
+ * pwsh or a copy of them on a local mirror.
+ * <p>
+ * The archive is extracted once per node into a directory named after {@link #getVersion()}. A marker file holding
+ * the checksum of the archive tells later builds that the installation is complete, so they return without any
+ * transfer. Extraction happens in a temporary directory which is then moved in place, and concurrent installations
+ * of the same directory from this controller wait for each other instead of all downloading the archive, as do
+ * concurrent downloads of the same archive to the controller.
+ * <p>
+ * The archive is verified against {@link #getSha256()}. By default, it is downloaded once to the controller and
+ * agents are served from that copy; otherwise each agent downloads it itself.
+ */
+public class PowerShellArchiveInstaller extends ToolInstaller {
+
+    static final String MARKER = ".installed";
+
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-fA-F]{64}");
+
+    private final String url;
+
+    private final String sha256;
+
+    private final String version;
+
+    private final String subdir;
+
+    private final boolean cacheOnController;
+
+    /**
+     * @param subdir directory of the archive holding the executable, if not at its root
+     */
+    @DataBoundConstructor
+    public PowerShellArchiveInstaller(String label, String url, String sha256, String version, String subdir,
+                                      boolean cacheOnController) {
+        super(label);
+        this.url = Util.fixEmptyAndTrim(url);
+        this.sha256 = Util.fixEmptyAndTrim(sha256);
+        this.version = Util.fixEmptyAndTrim(version);
+        this.subdir = Util.fixEmptyAndTrim(subdir);
+        this.cacheOnController = cacheOnController;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getSubdir() {
+        return subdir;
+    }
+
+    public boolean isCacheOnController() {
+        return cacheOnController;
+    }
+
+    @Override
+    public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        if (url == null || sha256 == null || !SHA256.matcher(sha256).matches()) {
+            throw new IOException("The PowerShell archive installer of " + tool.getName() + " needs a URL and a SHA-256 checksum");
+        }
+        final var checksum = sha256.toLowerCase(Locale.ENGLISH);
+        final var directory = preferredLocation(tool, node).child(version != null ? version : checksum.substring(0, 12));
+        final var home = subdir != null ? directory.child(subdir) : directory;
+        if (isInstalled(directory, checksum)) {
+            return home;
+        }
+
+        try (KeyedLock ignored = KeyedLock.acquire("install\0" + node.getNodeName() + '\0' + directory.getRemote())) {
+            if (isInstalled(directory, checksum)) {
+                return home;
+            }
+            log.getLogger().println(Messages.PowerShell_Installing(url, directory, node.getDisplayName()));
+            FilePath archive = directory.sibling(directory.getName() + ".download-" + UUID.randomUUID());
+            try {
+                if (cacheOnController) {
+                    archive.copyFrom(new FilePath(getCachedArchive(checksum)));
+                } else {
+                    archive.act(new Download(url));
+                }
+                directory.act(new Extract(archive.getRemote(), getArchiveType(url), checksum));
+            } finally {
+                if (archive.exists()) {
+                    archive.delete();
+                }
+            }
+        }
+        return home;
+    }
+
+    private static boolean isInstalled(FilePath directory, String checksum) throws IOException, InterruptedException {
+        FilePath marker = directory.child(MARKER);
+        return marker.exists() && checksum.equals(marker.readToString().trim());
+    }
+
+    /**
+     * Copy of the archive kept on the controller, downloading and verifying it first if needed.
+     */
+    private File getCachedArchive(String checksum) throws IOException, InterruptedException {
+        Path cache = Jenkins.get().getRootDir().toPath().resolve("caches").resolve("powershell-archives");
+        Path archive = cache.resolve(checksum + getArchiveType(url).extension);
+        if (Files.isRegularFile(archive)) {
+            return archive.toFile();
+        }
+        // installations on several nodes at once all need the same archive
+        try (KeyedLock ignored = KeyedLock.acquire("download\0" + checksum)) {
+            if (Files.isRegularFile(archive)) {
+                return archive.toFile();
+            }
+            Files.createDirectories(cache);
+            Path temp = Files.createTempFile(cache, "download", ".tmp");
+            try {
+                try (DigestInputStream in = new DigestInputStream(ProxyConfiguration.getInputStream(new URL(url)), newDigest())) {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                    verify(in.getMessageDigest(), checksum, url);
+                }
+                try {
+                    Files.move(temp, archive, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return archive.toFile();
+    }
+
+    static ArchiveType getArchiveType(String url) {
+        String path = url.toLowerCase(Locale.ENGLISH);
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        return path.endsWith(".zip") ? ArchiveType.ZIP : ArchiveType.TAR_GZ;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void verify(MessageDigest digest, String checksum, String source) throws IOException {
+        String actual = Util.toHexString(digest.digest());
+        if (!actual.equals(checksum)) {
+            throw new IOException("Checksum mismatch for " + source + ": expected " + checksum + " but got " + actual);
+        }
+    }
+
+    /**
+     * Lock of an installation or a download, dropped once no thread holds or waits for it, so that locks do not pile
+     * up with every version and node ever installed.
+     */
+    static final class KeyedLock implements AutoCloseable {
+
+        private static final Map<String, KeyedLock> LOCKS = new HashMap<>();
+
+        private final String key;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** Threads holding or waiting for the lock, guarded by {@link #LOCKS} */
+        private int users;
+
+        private KeyedLock(String key) {
+            this.key = key;
+        }
+
+        static KeyedLock acquire(String key) throws InterruptedException {
+            KeyedLock keyedLock;
+            synchronized (LOCKS) {
+                keyedLock = LOCKS.computeIfAbsent(key, KeyedLock::new);
+                keyedLock.users++;
+            }
+            try {
+                keyedLock.lock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                keyedLock.release();
+                throw e;
+            }
+            return keyedLock;
+        }
+
+        static int size() {
+            synchronized (LOCKS) {
+                return LOCKS.size();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.unlock();
+            release();
+        }
+
+        private void release() {
+            synchronized (LOCKS) {
+                if (--users == 0) {
+                    LOCKS.remove(key);
+                }
+            }
+        }
+    }
+
+    enum ArchiveType {
+        ZIP(".zip"),
+        TAR_GZ(".tar.gz");
+
+        private final String extension;
+
+        ArchiveType(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Downloads the archive on the agent.
+     */
+    private static final class Download extends MasterToSlaveFileCallable<Void> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final String url;
+
+        private Download(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public Void invoke(File archive, VirtualChannel channel) throws IOException {
+            Files.createDirectories(archive.toPath().getParent());
+            try (InputStream in = new URL(url).openStream()) {
+                Files.copy(in, archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Verifies the archive, extracts it next to the target directory and moves it in place.
+     */
+    private static final class Extract extends MasterToSlaveFileCallable<Void> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final String archive;
+        private final ArchiveType type;
+        private final String checksum;
+
+        private Extract(String archive, ArchiveType type, String checksum) {
+            this.archive = archive;
+            this.type = type;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public Void invoke(File directory, VirtualChannel channel) throws IOException, InterruptedException {
+            Path source = new File(archive).toPath();
+            try (DigestInputStream in = new DigestInputStream(Files.newInputStream(source), newDigest())) {
+                in.transferTo(OutputStream.nullOutputStream());
+                verify(in.getMessageDigest(), checksum, archive);
+            }
+
+            Path target = directory.toPath();
+            FilePath temp = new FilePath(target.resolveSibling(target.getFileName() + ".tmp-" + UUID.randomUUID()).toFile());
+            try {
+                try (InputStream in = Files.newInputStream(source)) {
+                    if (type == ArchiveType.ZIP) {
+                        temp.unzipFrom(in);
+                    } else {
+                        temp.untarFrom(in, FilePath.TarCompression.GZIP);
+                    }
+                }
+                Files.writeString(new File(temp.getRemote(), MARKER).toPath(), checksum, StandardCharsets.UTF_8);
+                new FilePath(directory).deleteRecursive();
+                try {
+                    Files.move(new File(temp.getRemote()).toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // installed concurrently, e.g. by another controller
+                    if (!Files.isRegularFile(target.resolve(MARKER))) {
+                        throw e;
+                    }
+                }
+            } finally {
+                temp.deleteRecursive();
+            }
+            return null;
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ToolInstallerDescriptor<PowerShellArchiveInstaller> {
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Extract PowerShell archive";
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == PowerShellInstallation.class;
+        }
+
+        public FormValidation doCheckUrl(@QueryParameter String value) {
+            return Util.fixEmptyAndTrim(value) == null ? FormValidation.error("Required") : FormValidation.ok();
+        }
+
+        public FormValidation doCheckSha256(@QueryParameter String value) {
+            return SHA256.matcher(Util.fixNull(value).trim()).matches()
+                    ? FormValidation.ok()
+                    : FormValidation.error("Expected the 64 hexadecimal digits of a SHA-256 checksum");
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package hudson.plugins.powershell;
+
+import hudson.FilePath;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performs the calls this plugin makes to agents, keeping count of them.
+ * <p>
+ * Every round trip to a remote agent is expensive on high-latency links. The count is that of the calls the plugin
+ * asks for, not of the requests on the channel, which also carry class loading and the builds' own calls.
+ */
+final class PowerShellChannelCalls {
+
+    private static final AtomicLong COUNT = new AtomicLong();
+
+    private PowerShellChannelCalls() {
+    }
+
+    static <T> T act(FilePath target, FilePath.FileCallable<T> callable) throws IOException, InterruptedException {
+        COUNT.incrementAndGet();
+        try {
+            return target.act(callable);
+        } catch (InterruptedIOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    static <V, T extends Throwable> V act(FilePath target, Callable<V, T> callable) throws IOException, InterruptedException, T {
+        COUNT.incrementAndGet();
+        try {
+            return target.act(callable);
+        } catch (InterruptedIOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    static <V, T extends Throwable> V call(VirtualChannel channel, Callable<V, T> callable) throws IOException, InterruptedException, T {
+        COUNT.incrementAndGet();
+        try {
+            return channel.call(callable);
+        } catch (InterruptedIOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    static <V, T extends Throwable> Future<V> callAsync(VirtualChannel channel, Callable<V, T> callable) throws IOException {
+        COUNT.incrementAndGet();
+        return channel.callAsync(callable);
+    }
+
+    /**
+     * Number of calls made since startup, whether the target was remote or local.
+     */
+    static long getCount() {
+        return COUNT.get();
+    }
+
+    /**
+     * Callables limited to {@link IOException} report an interruption as an {@link InterruptedIOException} caused by
+     * the {@link InterruptedException}. When they run in the same JVM, that is how the interruption of the build
+     * reaches the caller, which has to see it as an interruption for the build to be aborted rather than failed.
+     */
+    private static InterruptedException unwrap(InterruptedIOException e) throws InterruptedIOException {
+        if (e.getCause() instanceof InterruptedException cause) {
+            return cause;
+        }
+        throw e;
+    }
+}
@@ -0,0 +1,145 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import jenkins.model.NodeListener;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the PowerShell executable resolved for an installation on a node.
+ * <p>
+ * Resolving runs {@link PowerShellInstallation#forNode}, which may call the agent and run tool installers. The
+ * result only changes when the node or the installations are reconfigured, or when the node reconnects, so it is
+ * computed once and shared by all following steps. Concurrent lookups of the same entry wait for the first one. A
+ * failed resolution is not cached, and lookups that were waiting for it resolve again with their own resolver, so one
+ * interrupted or failing build does not hand its failure to the others.
+ */
+final class PowerShellExecutableCache {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellExecutableCache.class.getName());
+
+    private static final PowerShellExecutableCache INSTANCE = new PowerShellExecutableCache();
+
+    private final ConcurrentMap<Key, CompletableFuture<String>> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    static PowerShellExecutableCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached executable of {@code installation} on {@code node}, resolving it if needed.
+     *
+     * @param installation name of the configured installation, {@code null} for the platform default
+     */
+    @NonNull
+    String getExecutable(@NonNull Node node, @CheckForNull String installation, @NonNull Resolver resolver)
+            throws IOException, InterruptedException {
+        Key key = new Key(node.getNodeName(), installation);
+        CompletableFuture<String> entry = new CompletableFuture<>();
+        CompletableFuture<String> existing;
+        while ((existing = entries.putIfAbsent(key, entry)) != null) {
+            hits.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                // the failed entry is already removed, try again with our own resolver and listener
+                LOGGER.log(Level.FINE, "Shared resolution of PowerShell installation " + installation + " on node "
+                        + key.node + " failed, resolving again", e.getCause());
+            }
+        }
+
+        misses.incrementAndGet();
+        LOGGER.log(Level.FINE, "Resolving PowerShell installation {0} on node {1} ({2} hits, {3} misses)",
+                new Object[] {installation, key.node, hits.get(), misses.get()});
+        try {
+            String executable = resolver.resolve();
+            entry.complete(executable);
+            return executable;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            entries.remove(key, entry);
+            entry.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    void invalidate(@NonNull String node) {
+        if (entries.keySet().removeIf(key -> key.node.equals(node))) {
+            LOGGER.log(Level.FINE, "Invalidated PowerShell executables of node {0}", node);
+        }
+    }
+
+    void invalidateAll() {
+        entries.clear();
+    }
+
+    @FunctionalInterface
+    interface Resolver {
+        @NonNull
+        String resolve() throws IOException, InterruptedException;
+    }
+
+    private record Key(String node, String installation) {
+        private Key {
+            Objects.requireNonNull(node);
+        }
+    }
+
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            INSTANCE.invalidate(c.getName());
+        }
+
+        @Override
+        public void onOffline(@NonNull Computer c, @CheckForNull OfflineCause cause) {
+            INSTANCE.invalidate(c.getName());
+        }
+
+        @Override
+        public void onConfigurationChange() {
+            INSTANCE.invalidateAll();
+        }
+    }
+
+    @Extension
+    public static final class NodeListenerImpl extends NodeListener {
+        @Override
+        protected void onUpdated(@NonNull Node oldOne, @NonNull Node newOne) {
+            INSTANCE.invalidate(oldOne.getNodeName());
+            INSTANCE.invalidate(newOne.getNodeName());
+        }
+
+        @Override
+        protected void onDeleted(@NonNull Node node) {
+            INSTANCE.invalidate(node.getNodeName());
+        }
+    }
+}
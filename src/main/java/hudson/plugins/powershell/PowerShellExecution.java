@@ -0,0 +1,193 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Runs a PowerShell step on the agent in a single round trip: stages the script, launches PowerShell with the
+ * command line computed by {@link PowerShell#buildCommandLine}, streams its output to the build log and removes
+ * the script again. Scripts passed with {@code -EncodedCommand} need neither staging nor cleanup. The time spent in
+ * each of these phases is returned along with the exit code and the {@link PowerShellResults results} of the script.
+ */
+final class PowerShellExecution extends MasterToSlaveCallable<PowerShellExecution.Result, IOException> {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    private final List<String> commandLine;
+    private final String script;
+    private final String contents;
+    private final boolean cachedScript;
+    private final String workingDirectory;
+    private final String moduleCache;
+    private final Map<String, String> environment;
+    private final PowerShellOutputFilter filter;
+    private final OutputBudget budget;
+    private final PowerShellFanOut.Plan fanOut;
+    private final TaskListener listener;
+
+    /**
+     * @param script       path of the script on the agent, as used in {@code commandLine}, {@code null} if the command
+     *                     line holds the script itself
+     * @param cachedScript whether {@code script} lives in the {@link PowerShellScriptCache} and must be kept
+     * @param moduleCache  directory of the {@link PowerShellModuleCache} to warm up, {@code null} if not used
+     * @param filter       filter of the output, {@code null} to copy it as it is
+     * @param budget       size limit of the output, {@code null} if unlimited
+     * @param fanOut       inputs to run the script for, {@code null} to run it once
+     */
+    PowerShellExecution(List<String> commandLine, @CheckForNull String script, String contents, boolean cachedScript,
+                        String workingDirectory, @CheckForNull String moduleCache, Map<String, String> environment,
+                        @CheckForNull PowerShellOutputFilter filter, @CheckForNull OutputBudget budget,
+                        @CheckForNull PowerShellFanOut.Plan fanOut, TaskListener listener) {
+        this.commandLine = commandLine;
+        this.script = script;
+        this.contents = contents;
+        this.cachedScript = cachedScript;
+        this.workingDirectory = workingDirectory;
+        this.moduleCache = moduleCache;
+        this.environment = new HashMap<>(environment);
+        this.filter = filter;
+        this.budget = budget;
+        this.fanOut = fanOut;
+        this.listener = listener;
+    }
+
+    @Override
+    public Result call() throws IOException {
+        PowerShellTimings timings = new PowerShellTimings();
+        long start = System.nanoTime();
+        Path path = script != null ? new File(script).toPath() : null;
+        if (path != null) {
+            if (cachedScript) {
+                PowerShellScriptCache.stageLocally(path, contents);
+            } else {
+                Files.writeString(path, contents, Charset.defaultCharset(), StandardOpenOption.CREATE_NEW);
+            }
+            start = timings.recordSince(PowerShellTimings.STAGING, start);
+        }
+
+        CappedOutputStream capped = null;
+        try {
+            if (moduleCache != null && PowerShellModuleCache.warmUpLocally(new File(moduleCache).toPath(),
+                    commandLine.get(0), environment, listener)) {
+                start = timings.recordSince(PowerShellTimings.WARMUP, start);
+            }
+            PowerShellResults.prepareLocally(environment);
+            capped = budget != null ? budget.decorate(listener.getLogger()) : null;
+            final var filtered = filter != null ? filter.decorate(capped != null ? capped : listener.getLogger()) : null;
+            final OutputStream sink = filtered != null ? filtered : capped != null ? capped : listener.getLogger();
+            // the archive keeps the output as printed, the filter only applies to the log
+            TimedOutputStream out = new TimedOutputStream(capped != null ? capped.spilling(sink) : sink);
+            final var masks = maskEncodedCommand(commandLine.size(), path == null);
+            int exitCode;
+            try {
+                exitCode = fanOut != null
+                        ? fanOut.run(new Launcher.LocalLauncher(listener), commandLine, masks, environment,
+                                new FilePath(new File(workingDirectory)), out, listener)
+                        : new Launcher.LocalLauncher(listener).launch()
+                                .cmds(commandLine)
+                                .masks(masks)
+                                .envs(environment)
+                                .stdout(out)
+                                .pwd(workingDirectory)
+                                .join();
+            } finally {
+                // a last line without line break, e.g. before a failure, still belongs in the log
+                if (filtered != null) {
+                    filtered.finish();
+                }
+            }
+            File spill = capped != null ? capped.finish() : null;
+            start = recordExecution(timings, start, out.getFirstOutput());
+            return new Result(exitCode, timings, spill != null ? spill.getName() : null,
+                    PowerShellResults.readLocally(environment, listener));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while running " + commandLine.get(0)).initCause(e);
+        } finally {
+            if (capped != null) {
+                capped.discard();
+            }
+            if (path != null && !cachedScript) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    Functions.printStackTrace(e, listener.error(Messages.PowerShell_UnableToDelete(script)));
+                }
+                timings.recordSince(PowerShellTimings.CLEANUP, start);
+            }
+        }
+    }
+
+    /**
+     * Hides the script passed with {@code -EncodedCommand}, the last argument, from the command line printed to the
+     * build log.
+     */
+    static boolean[] maskEncodedCommand(int arguments, boolean encoded) {
+        boolean[] masks = new boolean[arguments];
+        masks[arguments - 1] = encoded;
+        return masks;
+    }
+
+    /**
+     * Splits the time since {@code start} into {@link PowerShellTimings#STARTUP} and {@link PowerShellTimings#SCRIPT}
+     * at the first output, all of it counting as the script when there was none.
+     *
+     * @return the current time
+     */
+    static long recordExecution(PowerShellTimings timings, long start, long firstOutput) {
+        if (firstOutput != 0) {
+            timings.record(PowerShellTimings.STARTUP, firstOutput - start);
+            start = firstOutput;
+        }
+        return timings.recordSince(PowerShellTimings.SCRIPT, start);
+    }
+
+    /**
+     * Exit code of PowerShell and the time spent on the agent.
+     *
+     * @param spill   name of the compressed output in the directory of the {@link OutputBudget}, {@code null} unless
+     *                the output was truncated
+     * @param results results written by the script, see {@link PowerShellResults}
+     */
+    record Result(int exitCode, PowerShellTimings timings, @CheckForNull String spill, Map<String, String> results)
+            implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1;
+    }
+
+    /**
+     * Size limit of the output of a step, and the directory receiving the full output when it is exceeded.
+     *
+     * @param bytes     number of bytes copied to the build log
+     * @param directory directory of the compressed output, on the node running PowerShell
+     */
+    record OutputBudget(long bytes, String directory) implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        CappedOutputStream decorate(OutputStream out) throws IOException {
+            return new CappedOutputStream(out, bytes,
+                    new File(directory, "powershell-output-" + UUID.randomUUID() + ".log.gz"));
+        }
+    }
+}
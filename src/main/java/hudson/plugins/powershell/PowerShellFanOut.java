@@ -0,0 +1,256 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the script of a step once per input, several PowerShell processes at a time.
+ * <p>
+ * Each run gets its input in {@value #INPUT_VARIABLE} and its position, starting at 0, in {@value #INDEX_VARIABLE}.
+ * Output lines are prefixed with the input of their run. The exit codes are combined into the one of the step:
+ * the first failure, or else {@code unstableReturn} if a run returned it, or else 0. With <em>Stop On Errors</em>,
+ * a failing run cancels the runs that are still pending or running.
+ */
+public class PowerShellFanOut extends AbstractDescribableImpl<PowerShellFanOut> implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    static final String INPUT_VARIABLE = "JENKINS_POWERSHELL_INPUT";
+
+    static final String INDEX_VARIABLE = "JENKINS_POWERSHELL_INDEX";
+
+    /** One input per line */
+    private final String inputs;
+
+    private final int parallelism;
+
+    @DataBoundConstructor
+    public PowerShellFanOut(String inputs, int parallelism) {
+        this.inputs = inputs;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public String getInputs() {
+        return inputs;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    List<String> getInputList() {
+        List<String> result = new ArrayList<>();
+        if (inputs != null) {
+            for (String line : inputs.split("\\R")) {
+                if (!line.isBlank()) {
+                    result.add(line.strip());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fan-out of a step, along with the settings of the step deciding how its runs fail.
+     *
+     * @param unstableReturn exit code marking a run as unstable rather than failed, {@code null} if none
+     */
+    record Plan(PowerShellFanOut fanOut, boolean stopOnError, @CheckForNull Integer unstableReturn) implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        int run(Launcher launcher, List<String> commandLine, boolean[] masks, Map<String, String> environment,
+                FilePath workingDirectory, OutputStream out, TaskListener listener) throws IOException, InterruptedException {
+            return fanOut.run(launcher, commandLine, masks, environment, workingDirectory, out, stopOnError,
+                    unstableReturn, listener);
+        }
+    }
+
+    /**
+     * Runs the command line once per input with {@code launcher}, which may be a local launcher on the agent or
+     * the launcher of the build on the controller.
+     *
+     * @param unstableReturn exit code marking a run as unstable rather than failed, {@code null} if none
+     * @return the combined exit code
+     */
+    int run(Launcher launcher, List<String> commandLine, boolean[] masks, Map<String, String> environment,
+            FilePath workingDirectory, OutputStream out, boolean stopOnError, @CheckForNull Integer unstableReturn,
+            TaskListener listener) throws IOException, InterruptedException {
+        List<String> inputList = getInputList();
+        if (inputList.isEmpty()) {
+            listener.getLogger().println(Messages.PowerShell_FanOutNoInputs());
+            return 0;
+        }
+        listener.getLogger().println(Messages.PowerShell_FanOut(inputList.size(), Math.min(parallelism, inputList.size())));
+
+        Integer[] exitCodes = new Integer[inputList.size()];
+        List<Proc> running = new CopyOnWriteArrayList<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, inputList.size()),
+                new NamingThreadFactory(new DaemonThreadFactory(), "PowerShell fan-out"));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < inputList.size(); i++) {
+                final int index = i;
+                futures.add(executor.submit(() -> {
+                    if (cancelled.get()) {
+                        return null;
+                    }
+                    String input = inputList.get(index);
+                    Map<String, String> env = new HashMap<>(environment);
+                    env.put(INPUT_VARIABLE, input);
+                    env.put(INDEX_VARIABLE, String.valueOf(index));
+                    Prefixed prefixed = new Prefixed(out, "[" + input + "] ");
+                    Proc proc = launcher.launch()
+                            .cmds(commandLine)
+                            .masks(masks)
+                            .envs(env)
+                            .stdout(prefixed)
+                            .pwd(workingDirectory)
+                            .quiet(true)
+                            .start();
+                    running.add(proc);
+                    // a failing run may have killed the others between the first check and the launch
+                    if (cancelled.get()) {
+                        proc.kill();
+                    }
+                    int exitCode;
+                    try {
+                        exitCode = proc.join();
+                    } finally {
+                        running.remove(proc);
+                        prefixed.close();
+                    }
+                    if (cancelled.get()) {
+                        return null;
+                    }
+                    exitCodes[index] = exitCode;
+                    if (stopOnError && isFailure(exitCode, unstableReturn) && cancelled.compareAndSet(false, true)) {
+                        listener.getLogger().println(Messages.PowerShell_FanOutCancelled(input, exitCode));
+                        killAll(running);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    killAll(running);
+                    if (e.getCause() instanceof IOException io) {
+                        throw io;
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            killAll(running);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+        return combine(exitCodes, unstableReturn);
+    }
+
+    private static void killAll(List<Proc> running) throws InterruptedException {
+        for (Proc proc : running) {
+            try {
+                proc.kill();
+            } catch (IOException e) {
+                // the process is gone already
+            }
+        }
+    }
+
+    private static boolean isFailure(int exitCode, @CheckForNull Integer unstableReturn) {
+        return exitCode != 0 && (unstableReturn == null || exitCode != unstableReturn);
+    }
+
+    /**
+     * The first failure, or else {@code unstableReturn} if a run returned it, or else 0. Runs that did not
+     * complete, having been cancelled, are ignored.
+     */
+    static int combine(Integer[] exitCodes, @CheckForNull Integer unstableReturn) {
+        boolean unstable = false;
+        for (Integer exitCode : exitCodes) {
+            if (exitCode == null) {
+                continue;
+            }
+            if (isFailure(exitCode, unstableReturn)) {
+                return exitCode;
+            }
+            unstable |= exitCode != 0;
+        }
+        return unstable ? unstableReturn : 0;
+    }
+
+    /**
+     * Prefixes every line of a run, writing whole lines at once so runs do not mix within a line.
+     */
+    private static final class Prefixed extends LineTransformationOutputStream.Delegating {
+
+        private final byte[] prefix;
+
+        Prefixed(OutputStream out, String prefix) {
+            super(out);
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            synchronized (out) {
+                out.write(prefix);
+                out.write(b, 0, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the output is shared with the other runs, only the last partial line is flushed
+            forceEol();
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<PowerShellFanOut> {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Fan-out";
+        }
+
+        public FormValidation doCheckParallelism(@QueryParameter int value) {
+            return value < 1 ? FormValidation.error(Messages.PowerShell_FanOutParallelism()) : FormValidation.ok();
+        }
+    }
+}
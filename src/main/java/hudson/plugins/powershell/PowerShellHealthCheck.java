@@ -0,0 +1,332 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import jenkins.util.SystemProperties;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks that every configured {@link PowerShellInstallation} works on every online node: that it resolves for the
+ * node, that its executable exists there and that it starts and reports its {@link PowerShellVersion version}.
+ * <p>
+ * Checks run in parallel on a thread pool of their own, {@link #CONCURRENCY} at a time, so that neither a large fleet
+ * nor a hanging agent holds up the queue or the other checks, and every check is abandoned after {@link #TIMEOUT}.
+ * Results are kept for {@link #TTL}: a fleet check only repeats the stale ones, and a node that reconnects is checked
+ * again right away once checks have been asked for.
+ */
+final class PowerShellHealthCheck {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellHealthCheck.class.getName());
+
+    static final int CONCURRENCY = SystemProperties.getInteger(PowerShellHealthCheck.class.getName() + ".concurrency", 16);
+
+    /** Non-final for tests */
+    static long TIMEOUT = TimeUnit.SECONDS.toMillis(
+            SystemProperties.getLong(PowerShellHealthCheck.class.getName() + ".timeoutSeconds", 60L));
+
+    static final long TTL = TimeUnit.MINUTES.toMillis(
+            SystemProperties.getLong(PowerShellHealthCheck.class.getName() + ".ttlMinutes", 10L));
+
+    private static final PowerShellHealthCheck INSTANCE = new PowerShellHealthCheck();
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(CONCURRENCY, CONCURRENCY, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), "PowerShell health check"));
+
+    private final ConcurrentMap<Key, Result> results = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Key, Check> running = new ConcurrentHashMap<>();
+
+    /** Whether checks have been asked for, after which reconnecting nodes are checked as they come online */
+    private volatile boolean enabled;
+
+    private PowerShellHealthCheck() {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static PowerShellHealthCheck get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts checking the installations of every online node, the built-in node included.
+     *
+     * @param force whether to repeat the checks whose result is still fresh
+     * @return the checks to wait for, which are never more than one per node and installation
+     */
+    List<Check> checkAll(boolean force) {
+        enabled = true;
+        List<Check> checks = new ArrayList<>();
+        List<Node> nodes = new ArrayList<>(Jenkins.get().getNodes());
+        nodes.add(Jenkins.get());
+        for (Node node : nodes) {
+            checks.addAll(check(node, force));
+        }
+        return checks;
+    }
+
+    /**
+     * Starts checking the installations of {@code node}, unless it is offline.
+     */
+    List<Check> check(@NonNull Node node, boolean force) {
+        Computer computer = node.toComputer();
+        FilePath root = node.getRootPath();
+        if (computer == null || computer.isOffline() || root == null) {
+            return List.of();
+        }
+        final var installations = Jenkins.get().getDescriptorByType(PowerShellInstallation.DescriptorImpl.class).getInstallations();
+        long now = System.currentTimeMillis();
+        List<Check> checks = new ArrayList<>();
+        for (PowerShellInstallation installation : installations) {
+            Key key = new Key(getName(node), installation.getName());
+            Result previous = results.get(key);
+            if (!force && previous != null && now - previous.timestamp() < TTL) {
+                continue;
+            }
+            Check check = new Check(key, node, root, installation);
+            Check existing = running.putIfAbsent(key, check);
+            if (existing != null) {
+                checks.add(existing);
+            } else {
+                executor.execute(check);
+                checks.add(check);
+            }
+        }
+        return checks;
+    }
+
+    /**
+     * Latest result of each installation on each node, by node and installation.
+     */
+    List<Result> getResults() {
+        List<Result> list = new ArrayList<>(results.values());
+        list.sort(Comparator.comparing(Result::node).thenComparing(Result::installation));
+        return list;
+    }
+
+    boolean isRunning() {
+        return !running.isEmpty();
+    }
+
+    void forget(@NonNull String node) {
+        results.keySet().removeIf(key -> key.node.equals(node));
+    }
+
+    void forgetAll() {
+        results.clear();
+    }
+
+    private static String getName(Node node) {
+        return node.getNodeName().isEmpty() ? PowerShellStartupStats.BUILT_IN : node.getNodeName();
+    }
+
+    /**
+     * Resolves the installation for the node and probes its executable there, giving up after {@link #TIMEOUT}.
+     * Resolving may run tool installers and call the agent just like probing, so both are bounded together.
+     */
+    private static Result run(Key key, Node node, FilePath root, PowerShellInstallation installation) {
+        long timestamp = System.currentTimeMillis();
+        AtomicReference<String> executable = new AtomicReference<>();
+        Future<Result> future = Computer.threadPoolForRemoting.submit(
+                () -> probe(key, timestamp, node, root, installation, executable));
+        try {
+            return future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return new Result(key, timestamp, Status.TIMED_OUT, executable.get(), null, -1,
+                    Messages.PowerShell_HealthTimedOut(TimeUnit.MILLISECONDS.toSeconds(TIMEOUT)));
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new Result(key, timestamp, Status.FAILED, executable.get(), null, -1, e.toString());
+        } catch (ExecutionException e) {
+            return failed(key, timestamp, executable.get(), e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    /**
+     * @param resolved receives the executable as soon as it is resolved, for the result of a check that times out
+     */
+    private static Result probe(Key key, long timestamp, Node node, FilePath root, PowerShellInstallation installation,
+                                AtomicReference<String> resolved) throws InterruptedException {
+        String executable = null;
+        try {
+            final var nodeInstallation = installation.forNode(node, TaskListener.NULL);
+            executable = PowerShell.getExecutable(nodeInstallation != null ? nodeInstallation : installation,
+                    PowerShell.isWindows(root));
+            resolved.set(executable);
+            Outcome outcome = PowerShellChannelCalls.call(root.getChannel(), new Probe(executable));
+            if (!outcome.found()) {
+                return new Result(key, timestamp, Status.FAILED, executable, null, -1, Messages.PowerShell_HealthNotFound());
+            }
+            if (outcome.version() == null) {
+                return new Result(key, timestamp, Status.FAILED, executable, null, -1, Messages.PowerShell_HealthNoVersion());
+            }
+            return new Result(key, timestamp, Status.OK, executable, outcome.version().toString(),
+                    TimeUnit.NANOSECONDS.toMillis(outcome.nanos()), null);
+        } catch (IOException | RuntimeException e) {
+            return failed(key, timestamp, executable, e);
+        }
+    }
+
+    private static Result failed(Key key, long timestamp, @CheckForNull String executable, Throwable cause) {
+        LOGGER.log(Level.FINE, "PowerShell health check of " + key.installation + " on " + key.node + " failed", cause);
+        return new Result(key, timestamp, Status.FAILED, executable, null, -1,
+                cause.getMessage() != null ? cause.getMessage() : cause.toString());
+    }
+
+    final class Check extends FutureTask<Result> {
+
+        private final Key key;
+
+        private Check(Key key, Node node, FilePath root, PowerShellInstallation installation) {
+            super(() -> run(key, node, root, installation));
+            this.key = key;
+        }
+
+        /**
+         * Waits for the result of the check, for {@link #TIMEOUT} at most.
+         *
+         * @return a {@link Status#TIMED_OUT} result if the check is still queued or running by then
+         */
+        Result await() throws InterruptedException {
+            long timestamp = System.currentTimeMillis();
+            try {
+                return get(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return new Result(key, timestamp, Status.TIMED_OUT, null, null, -1,
+                        Messages.PowerShell_HealthTimedOut(TimeUnit.MILLISECONDS.toSeconds(TIMEOUT)));
+            } catch (ExecutionException | CancellationException e) {
+                return failed(key, timestamp, null, e.getCause() != null ? e.getCause() : e);
+            }
+        }
+
+        @Override
+        protected void set(Result result) {
+            results.put(key, result);
+            super.set(result);
+        }
+
+        @Override
+        protected void done() {
+            running.remove(key, this);
+        }
+    }
+
+    private record Key(String node, String installation) {
+    }
+
+    enum Status {
+        OK, FAILED, TIMED_OUT
+    }
+
+    /**
+     * Outcome of a check of an installation on a node.
+     *
+     * @param timestamp     when the check started, in milliseconds since the epoch
+     * @param executable    executable resolved for the node, {@code null} if the resolution failed
+     * @param startupMillis time taken to start PowerShell and get its version, -1 unless the check succeeded
+     * @param message       why the check failed, {@code null} if it succeeded
+     */
+    record Result(String node, String installation, long timestamp, Status status, @CheckForNull String executable,
+                  @CheckForNull String version, long startupMillis, @CheckForNull String message) {
+
+        private Result(Key key, long timestamp, Status status, @CheckForNull String executable,
+                       @CheckForNull String version, long startupMillis, @CheckForNull String message) {
+            this(key.node, key.installation, timestamp, status, executable, version, startupMillis, message);
+        }
+
+        boolean isOk() {
+            return status == Status.OK;
+        }
+    }
+
+    /**
+     * @param found whether the executable exists, always {@code true} when it is looked up on the {@code PATH}
+     * @param nanos time taken to start PowerShell and get its version
+     */
+    private record Outcome(boolean found, @CheckForNull PowerShellVersion version, long nanos) implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1;
+    }
+
+    private static final class Probe extends MasterToSlaveCallable<Outcome, IOException> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final String executable;
+
+        private Probe(String executable) {
+            this.executable = executable;
+        }
+
+        @Override
+        public Outcome call() throws IOException {
+            File file = new File(executable);
+            if (file.isAbsolute() && !file.isFile()) {
+                return new Outcome(false, null, 0);
+            }
+            long start = System.nanoTime();
+            final var version = PowerShellVersion.probeLocally(executable);
+            return new Outcome(true, version, System.nanoTime() - start);
+        }
+    }
+
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Node node = c.getNode();
+            if (node != null) {
+                INSTANCE.forget(getName(node));
+                if (INSTANCE.enabled) {
+                    INSTANCE.check(node, true);
+                }
+            }
+        }
+
+        @Override
+        public void onOffline(@NonNull Computer c, @CheckForNull OfflineCause cause) {
+            Node node = c.getNode();
+            if (node != null) {
+                INSTANCE.forget(getName(node));
+            }
+        }
+
+        @Override
+        public void onConfigurationChange() {
+            INSTANCE.forgetAll();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package hudson.plugins.powershell;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.model.Jenkins;
+import org.kohsuke.args4j.Option;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the {@link PowerShellHealthCheck} from the CLI, waits for it and prints one line per installation and node.
+ * Exits with 1 if any check failed or did not complete in time.
+ */
+@Extension
+public class PowerShellHealthCheckCommand extends CLICommand {
+
+    @Option(name = "--force", usage = "Repeat the checks whose result is still fresh")
+    public boolean force;
+
+    @Override
+    public String getName() {
+        return "powershell-health-check";
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "Checks that every PowerShell installation resolves and starts on every online node.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        final var healthCheck = PowerShellHealthCheck.get();
+        // checks still queued or running once their time is up are reported as timed out
+        Map<String, PowerShellHealthCheck.Result> timedOut = new HashMap<>();
+        for (PowerShellHealthCheck.Check check : healthCheck.checkAll(force)) {
+            final var result = check.await();
+            if (result.status() == PowerShellHealthCheck.Status.TIMED_OUT) {
+                timedOut.put(result.node() + '\0' + result.installation(), result);
+            }
+        }
+
+        List<PowerShellHealthCheck.Result> results = new ArrayList<>(timedOut.values());
+        for (PowerShellHealthCheck.Result result : healthCheck.getResults()) {
+            if (!timedOut.containsKey(result.node() + '\0' + result.installation())) {
+                results.add(result);
+            }
+        }
+        results.sort(Comparator.comparing(PowerShellHealthCheck.Result::node)
+                .thenComparing(PowerShellHealthCheck.Result::installation));
+
+        int exitCode = 0;
+        for (PowerShellHealthCheck.Result result : results) {
+            stdout.println(String.join("\t", result.node(), result.installation(), result.status().name(),
+                    result.version() != null ? result.version() : "",
+                    result.startupMillis() >= 0 ? result.startupMillis() + " ms" : "",
+                    result.message() != null ? result.message() : ""));
+            if (!result.isOk()) {
+                exitCode = 1;
+            }
+        }
+        return exitCode;
+    }
+}
@@ -0,0 +1,150 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import hudson.security.Permission;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpRedirect;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+import org.kohsuke.stapler.verb.POST;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shows the {@link PowerShellHealthCheck} of every installation on every online node, also available as JSON or XML
+ * through {@code api/}, and starts it.
+ */
+@Extension
+@ExportedBean
+public class PowerShellHealthLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-terminal";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "PowerShell health";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Checks that every PowerShell installation resolves and starts on every online node.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "powershell-health";
+    }
+
+    @NonNull
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.SYSTEM_READ;
+    }
+
+    @NonNull
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    public Api getApi() {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        return new Api(this);
+    }
+
+    @Exported
+    public boolean isRunning() {
+        return PowerShellHealthCheck.get().isRunning();
+    }
+
+    @Exported
+    public List<Check> getChecks() {
+        List<Check> result = new ArrayList<>();
+        for (PowerShellHealthCheck.Result r : PowerShellHealthCheck.get().getResults()) {
+            result.add(new Check(r));
+        }
+        return result;
+    }
+
+    /**
+     * Starts checking the installations in the background. Checking runs tool installers, hence the permission.
+     *
+     * @param force whether to also repeat the checks whose result is still fresh
+     */
+    @POST
+    public HttpResponse doCheck(@QueryParameter boolean force) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        PowerShellHealthCheck.get().checkAll(force);
+        return new HttpRedirect(".");
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Check {
+
+        private final PowerShellHealthCheck.Result result;
+
+        private Check(PowerShellHealthCheck.Result result) {
+            this.result = result;
+        }
+
+        @Exported
+        public String getNode() {
+            return result.node();
+        }
+
+        @Exported
+        public String getInstallation() {
+            return result.installation();
+        }
+
+        @Exported
+        public String getStatus() {
+            return result.status().name();
+        }
+
+        public boolean isOk() {
+            return result.isOk();
+        }
+
+        /** When the check started, in milliseconds since the epoch */
+        @Exported
+        public long getTimestamp() {
+            return result.timestamp();
+        }
+
+        public Date getTime() {
+            return new Date(result.timestamp());
+        }
+
+        @Exported
+        public String getExecutable() {
+            return result.executable();
+        }
+
+        @Exported
+        public String getVersion() {
+            return result.version();
+        }
+
+        /** Time taken to start PowerShell and get its version, -1 unless the check succeeded */
+        @Exported
+        public long getStartupMillis() {
+            return result.startupMillis();
+        }
+
+        @Exported
+        public String getMessage() {
+            return result.message();
+        }
+    }
+}
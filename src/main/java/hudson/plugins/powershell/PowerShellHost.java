@@ -0,0 +1,303 @@
+package hudson.plugins.powershell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A long-lived PowerShell process running {@code host.ps1}, used by {@link PowerShellHostPool}.
+ * <p>
+ * Lives on the agent. Each request is a script file which the host runs in a fresh runspace, so the interpreter
+ * startup cost is only paid once per host. Alternatively, consecutive scripts can share the runspace of a session,
+ * see {@link #runInSession}.
+ */
+final class PowerShellHost implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellHost.class.getName());
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static volatile String hostScript;
+
+    private final Key key;
+
+    private final Process process;
+
+    private final Writer requests;
+
+    private volatile Request pending;
+
+    /** Set by the output pump once the host closed its output, after which no request can complete */
+    private volatile boolean exited;
+
+    /** Read by the idle sweeper of the pool while the host may be in use */
+    private volatile int uses;
+
+    private volatile long idleSince;
+
+    private PowerShellHost(Key key, Process process) {
+        this.key = key;
+        this.process = process;
+        this.requests = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII);
+        this.idleSince = System.nanoTime();
+        Thread pump = new Thread(this::pump, "PowerShell host output pump " + process.pid());
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    static PowerShellHost start(Key key) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add(key.executable);
+        args.add("-NoLogo");
+        args.add("-NonInteractive");
+        // profiles are loaded into every runspace by host.ps1 instead
+        args.add("-NoProfile");
+        if (key.windows) {
+            args.add("-ExecutionPolicy");
+            args.add("Bypass");
+        }
+        args.add("-EncodedCommand");
+        args.add(encodeCommand("$UseProfile = $" + key.useProfile + System.lineSeparator() + getHostScript()));
+
+        Process process = new ProcessBuilder(args).redirectErrorStream(true).start();
+        LOGGER.log(Level.FINE, "Started PowerShell host {0} for {1}", new Object[] {process.pid(), key});
+        return new PowerShellHost(key, process);
+    }
+
+    Key getKey() {
+        return key;
+    }
+
+    int getUses() {
+        return uses;
+    }
+
+    boolean isAlive() {
+        return !exited && process.isAlive();
+    }
+
+    void markIdle() {
+        idleSince = System.nanoTime();
+    }
+
+    long getIdleNanos() {
+        return System.nanoTime() - idleSince;
+    }
+
+    /**
+     * Runs a script file in a fresh runspace of this host, copying its output to {@code out}.
+     *
+     * @return the exit code of the script
+     */
+    int run(String workingDirectory, String script, Map<String, String> environment, OutputStream out)
+            throws IOException, InterruptedException {
+        return request("run", workingDirectory, script, environment, out);
+    }
+
+    /**
+     * Dot-sources a script file into the runspace of the current session, starting a new session if needed, so
+     * that modules, functions and variables of previous scripts remain available. Exit code, error action
+     * preference, environment and working directory are reset for every script.
+     *
+     * @return the exit code of the script
+     */
+    int runInSession(String workingDirectory, String script, Map<String, String> environment, OutputStream out)
+            throws IOException, InterruptedException {
+        return request("session", workingDirectory, script, environment, out);
+    }
+
+    /**
+     * Disposes the runspace of the current session, if any.
+     */
+    void endSession() throws IOException, InterruptedException {
+        request("end", "", "", Map.of(), OutputStream.nullOutputStream());
+    }
+
+    private int request(String mode, String workingDirectory, String script, Map<String, String> environment,
+                        OutputStream out) throws IOException, InterruptedException {
+        Request request = new Request(UUID.randomUUID().toString().replace("-", ""), out);
+        StringBuilder line = new StringBuilder(request.marker)
+                .append(' ').append(mode)
+                .append(' ').append(encode(workingDirectory))
+                .append(' ').append(encode(script));
+        for (Map.Entry<String, String> entry : environment.entrySet()) {
+            line.append(' ').append(encode(entry.getKey() + '=' + entry.getValue()));
+        }
+        line.append('\n');
+
+        uses++;
+        pending = request;
+        try {
+            // the pump completes the pending request when the host exits, unless it was done before the request
+            // became pending, in which case it has to be failed here
+            if (exited) {
+                throw new EOFException("PowerShell host " + process.pid() + " exited");
+            }
+            requests.write(line.toString());
+            requests.flush();
+            return request.exitCode.get();
+        } catch (ExecutionException e) {
+            throw new IOException("PowerShell host " + process.pid() + " failed", e.getCause());
+        } finally {
+            pending = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            requests.close();
+            if (process.waitFor(5, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close PowerShell host " + process.pid(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        kill();
+    }
+
+    void kill() {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private void pump() {
+        byte[] buffer = new byte[8192];
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    line.write(buffer[i]);
+                    if (buffer[i] == '\n' || line.size() >= MAX_LINE_LENGTH) {
+                        onLine(line.toByteArray());
+                        line.reset();
+                    }
+                }
+            }
+            if (line.size() > 0) {
+                onLine(line.toByteArray());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Lost output of PowerShell host " + process.pid(), e);
+        }
+        exited = true;
+        Request request = pending;
+        if (request != null) {
+            request.exitCode.completeExceptionally(new EOFException("PowerShell host " + process.pid() + " exited"));
+        }
+    }
+
+    private void onLine(byte[] bytes) {
+        Request request = pending;
+        if (request == null) {
+            // output written outside of any request, e.g. by a profile
+            return;
+        }
+        // one char per byte, so that indexes in the decoded text match indexes in the raw output
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        int index = text.indexOf(request.marker);
+        try {
+            if (index < 0) {
+                request.out.write(bytes);
+                return;
+            }
+            request.out.write(bytes, 0, index);
+            request.out.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to forward output of PowerShell host " + process.pid(), e);
+        }
+        try {
+            request.exitCode.complete(Integer.parseInt(text.substring(index + request.marker.length()).trim()));
+        } catch (NumberFormatException e) {
+            request.exitCode.completeExceptionally(e);
+        }
+    }
+
+    private static String getHostScript() throws IOException {
+        String script = hostScript;
+        if (script == null) {
+            try (InputStream in = PowerShellHost.class.getResourceAsStream("PowerShellHost/host.ps1")) {
+                if (in == null) {
+                    throw new IOException("Missing PowerShellHost/host.ps1");
+                }
+                script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            hostScript = script;
+        }
+        return script;
+    }
+
+    private static String encode(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String encodeCommand(String command) {
+        return Base64.getEncoder().encodeToString(command.getBytes(StandardCharsets.UTF_16LE));
+    }
+
+    private static final class Request {
+        private final String marker;
+        private final OutputStream out;
+        private final CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+
+        private Request(String marker, OutputStream out) {
+            this.marker = marker;
+            this.out = out;
+        }
+    }
+
+    /**
+     * Identifies interchangeable hosts: same executable, same profile handling and same platform.
+     */
+    static final class Key {
+        private final String executable;
+        private final boolean useProfile;
+        private final boolean windows;
+
+        Key(String executable, boolean useProfile, boolean windows) {
+            this.executable = executable;
+            this.useProfile = useProfile;
+            this.windows = windows;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key other)) {
+                return false;
+            }
+            return useProfile == other.useProfile && windows == other.windows && executable.equals(other.executable);
+        }
+
+        @Override
+        public int hashCode() {
+            return (executable.hashCode() * 31 + Boolean.hashCode(useProfile)) * 31 + Boolean.hashCode(windows);
+        }
+
+        @Override
+        public String toString() {
+            return executable + (useProfile ? "" : " -NoProfile");
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package hudson.plugins.powershell;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of idle {@link PowerShellHost}s, kept per agent JVM.
+ * <p>
+ * Hosts are keyed by executable, profile handling and platform. Whenever a host is taken out of the pool, a
+ * replacement is started in the background so that the next step finds a warm one. Hosts are closed once they
+ * have been idle for too long or have run {@link Settings#getRecycleAfter()} scripts.
+ * <p>
+ * A host can also be held by a session, which runs consecutive steps of a build in the same runspace. Between
+ * steps, the host stays with the session instead of returning to the pool. Sessions left idle for longer than
+ * the idle timeout, e.g. because the build was aborted, are closed.
+ */
+final class PowerShellHostPool {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellHostPool.class.getName());
+
+    private static final PowerShellHostPool INSTANCE = new PowerShellHostPool();
+
+    private final Map<PowerShellHost.Key, Deque<PowerShellHost>> idleHosts = new HashMap<>();
+
+    private final Map<String, PowerShellHost> sessions = new HashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "PowerShell host pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Settings settings = new Settings(2, 300, 50);
+
+    private PowerShellHostPool() {
+        executor.scheduleWithFixedDelay(this::evictIdleHosts, 30, 30, TimeUnit.SECONDS);
+    }
+
+    static PowerShellHostPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Takes an idle host out of the pool, or starts a new one if there is none.
+     */
+    PowerShellHost acquire(PowerShellHost.Key key, Settings settings) throws IOException {
+        PowerShellHost host = null;
+        List<PowerShellHost> dead = new ArrayList<>();
+        synchronized (this) {
+            this.settings = settings;
+            Deque<PowerShellHost> hosts = idleHosts.get(key);
+            while (host == null && hosts != null && !hosts.isEmpty()) {
+                PowerShellHost candidate = hosts.pollFirst();
+                if (candidate.isAlive()) {
+                    host = candidate;
+                } else {
+                    dead.add(candidate);
+                }
+            }
+        }
+        dead.forEach(PowerShellHost::kill);
+
+        if (host == null) {
+            host = PowerShellHost.start(key);
+        }
+        executor.execute(() -> prestart(key));
+        return host;
+    }
+
+    /**
+     * Returns a host to the pool once its script has completed.
+     *
+     * @param reusable {@code false} if the host was interrupted or failed and must not be used again
+     */
+    void release(PowerShellHost host, boolean reusable) {
+        if (reusable && host.isAlive()) {
+            synchronized (this) {
+                Deque<PowerShellHost> hosts = idleHosts.computeIfAbsent(host.getKey(), k -> new ArrayDeque<>());
+                if (host.getUses() < settings.getRecycleAfter() && hosts.size() < settings.getMaxSize()) {
+                    host.markIdle();
+                    hosts.addFirst(host);
+                    return;
+                }
+            }
+            executor.execute(host::close);
+        } else {
+            host.kill();
+        }
+    }
+
+    /**
+     * Takes the host of a session, or a host from the pool if the session is new.
+     *
+     * @param session identifies the session, unique across all builds
+     */
+    PowerShellHost acquireSession(String session, PowerShellHost.Key key, Settings settings) throws IOException {
+        PowerShellHost host;
+        synchronized (this) {
+            host = sessions.remove(session);
+        }
+        if (host != null) {
+            if (host.isAlive() && host.getKey().equals(key)) {
+                return host;
+            }
+            host.kill();
+        }
+        return acquire(key, settings);
+    }
+
+    /**
+     * Keeps the host with the session once its script has completed, or returns it to the pool at the end of the
+     * session.
+     *
+     * @param reusable {@code false} if the host was interrupted or failed and must not be used again
+     * @param end      whether this was the last script of the session
+     */
+    void releaseSession(String session, PowerShellHost host, boolean reusable, boolean end) {
+        if (!reusable || !host.isAlive()) {
+            host.kill();
+        } else if (end) {
+            endSession(host);
+        } else {
+            PowerShellHost previous;
+            synchronized (this) {
+                host.markIdle();
+                previous = sessions.put(session, host);
+            }
+            if (previous != null && previous != host) {
+                previous.kill();
+            }
+        }
+    }
+
+    /**
+     * Ends a session from outside of any step, e.g. because the build completed before its last step ran.
+     */
+    void endSession(String session) {
+        PowerShellHost host;
+        synchronized (this) {
+            host = sessions.remove(session);
+        }
+        if (host != null) {
+            executor.execute(() -> endSession(host));
+        }
+    }
+
+    private void endSession(PowerShellHost host) {
+        try {
+            host.endSession();
+            release(host, true);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to end PowerShell session of host for " + host.getKey(), e);
+            host.kill();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            host.kill();
+        }
+    }
+
+    private void prestart(PowerShellHost.Key key) {
+        synchronized (this) {
+            Deque<PowerShellHost> hosts = idleHosts.get(key);
+            if (hosts != null && !hosts.isEmpty()) {
+                return;
+            }
+        }
+        PowerShellHost host;
+        try {
+            host = PowerShellHost.start(key);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to start PowerShell host for " + key, e);
+            return;
+        }
+        release(host, true);
+    }
+
+    private void evictIdleHosts() {
+        List<PowerShellHost> evicted = new ArrayList<>();
+        synchronized (this) {
+            long timeout = TimeUnit.SECONDS.toNanos(settings.getIdleTimeout());
+            for (Iterator<Deque<PowerShellHost>> it = idleHosts.values().iterator(); it.hasNext(); ) {
+                Deque<PowerShellHost> hosts = it.next();
+                hosts.removeIf(host -> {
+                    if (!host.isAlive() || host.getIdleNanos() > timeout) {
+                        evicted.add(host);
+                        return true;
+                    }
+                    return false;
+                });
+                if (hosts.isEmpty()) {
+                    it.remove();
+                }
+            }
+            sessions.values().removeIf(host -> {
+                if (!host.isAlive() || host.getIdleNanos() > timeout) {
+                    evicted.add(host);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (PowerShellHost host : evicted) {
+            LOGGER.log(Level.FINE, "Closing idle PowerShell host for {0}", host.getKey());
+            host.close();
+        }
+    }
+
+    /**
+     * Pool configuration, sent from the controller along with every request.
+     */
+    static final class Settings implements Serializable {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final int maxSize;
+        private final int idleTimeout;
+        private final int recycleAfter;
+
+        Settings(int maxSize, int idleTimeout, int recycleAfter) {
+            this.maxSize = Math.max(1, maxSize);
+            this.idleTimeout = Math.max(0, idleTimeout);
+            this.recycleAfter = Math.max(1, recycleAfter);
+        }
+
+        /** Maximum number of idle hosts kept per key. */
+        int getMaxSize() {
+            return maxSize;
+        }
+
+        /** Seconds after which an idle host is closed. */
+        int getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        /** Number of scripts after which a host is replaced by a new one. */
+        int getRecycleAfter() {
+            return recycleAfter;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package hudson.plugins.powershell;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.EnvVars;
@@ -17,6 +18,7 @@ import hudson.tools.ToolProperty;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest2;
 
 import java.io.IOException;
@@ -51,6 +53,18 @@ public class PowerShellInstallation extends ToolInstallation implements NodeSpec
     private /*almost final*/ String powershellHome;
     private /*almost final*/ String executable;
 
+    /** Keeps the module analysis cache in the node root, see {@link PowerShellModuleCache} */
+    private boolean persistentModuleCache;
+
+    /** Default filter of the output of the steps using this installation */
+    private PowerShellOutputFilter outputFilter;
+
+    /** Label expression of the nodes having this installation, {@code null} if all of them may have it */
+    private String label;
+
+    /** Version of PowerShell this installation provides, {@code null} if unknown */
+    private String version;
+
     @DataBoundConstructor
     public PowerShellInstallation(String name, String powershellHome, String executable, List<? extends ToolProperty<?>> properties) {
         super(name, null, properties);
@@ -60,12 +74,21 @@ public class PowerShellInstallation extends ToolInstallation implements NodeSpec
 
     @Override
     public PowerShellInstallation forNode(@NonNull Node node, TaskListener log) throws IOException, InterruptedException {
-        return new PowerShellInstallation(getName(), translateFor(node, log), executable, getProperties());
+        return copy(translateFor(node, log));
     }
 
     @Override
     public PowerShellInstallation forEnvironment(EnvVars environment) {
-        return new PowerShellInstallation(getName(), environment.expand(getHome()), executable, getProperties());
+        return copy(environment.expand(getHome()));
+    }
+
+    private PowerShellInstallation copy(String powershellHome) {
+        PowerShellInstallation installation = new PowerShellInstallation(getName(), powershellHome, executable, getProperties());
+        installation.persistentModuleCache = persistentModuleCache;
+        installation.outputFilter = outputFilter;
+        installation.label = label;
+        installation.version = version;
+        return installation;
     }
 
     public static String getDefaultPowershellWhenNoConfiguration(Boolean isRunningOnWindows) {
@@ -109,6 +132,45 @@ public class PowerShellInstallation extends ToolInstallation implements NodeSpec
         return executable;
     }
 
+    public boolean isPersistentModuleCache() {
+        return persistentModuleCache;
+    }
+
+    @DataBoundSetter
+    public void setPersistentModuleCache(boolean persistentModuleCache) {
+        this.persistentModuleCache = persistentModuleCache;
+    }
+
+    @CheckForNull
+    public PowerShellOutputFilter getOutputFilter() {
+        return outputFilter;
+    }
+
+    @DataBoundSetter
+    public void setOutputFilter(@CheckForNull PowerShellOutputFilter outputFilter) {
+        this.outputFilter = outputFilter;
+    }
+
+    @CheckForNull
+    public String getLabel() {
+        return label;
+    }
+
+    @DataBoundSetter
+    public void setLabel(@CheckForNull String label) {
+        this.label = Util.fixEmptyAndTrim(label);
+    }
+
+    @CheckForNull
+    public String getVersion() {
+        return version;
+    }
+
+    @DataBoundSetter
+    public void setVersion(@CheckForNull String version) {
+        this.version = Util.fixEmptyAndTrim(version);
+    }
+
     @Serial
     @Override
     protected Object readResolve() {
@@ -145,17 +207,47 @@ public class PowerShellInstallation extends ToolInstallation implements NodeSpec
     @Extension
     public static class DescriptorImpl extends ToolDescriptor<PowerShellInstallation>
     {
+        private transient volatile PowerShellInstallationIndex index;
+
         public DescriptorImpl() {
             super();
             load();
         }
 
+        @Override
+        public synchronized void load() {
+            super.load();
+            index = new PowerShellInstallationIndex(getInstallations());
+        }
+
+        /**
+         * Snapshot of the installations, rebuilt when they are loaded or replaced.
+         */
+        PowerShellInstallationIndex getIndex() {
+            PowerShellInstallationIndex current = index;
+            if (current == null) {
+                // deserialized without going through load()
+                current = new PowerShellInstallationIndex(getInstallations());
+                index = current;
+            }
+            return current;
+        }
+
         @Override
         @NonNull
         public String getDisplayName() {
             return "PowerShell";
         }
 
+        @Override
+        public void setInstallations(PowerShellInstallation... installations) {
+            super.setInstallations(installations);
+            index = new PowerShellInstallationIndex(getInstallations());
+            PowerShellExecutableCache.get().invalidateAll();
+            PowerShellVersion.invalidateAll();
+            PowerShellHealthCheck.get().forgetAll();
+        }
+
         @Override
         public boolean configure(StaplerRequest2 req, JSONObject json) {
             setInstallations(req.bindJSONToList(PowerShellInstallation.class, json.get("tool"))
@@ -166,14 +258,13 @@ public class PowerShellInstallation extends ToolInstallation implements NodeSpec
 
         @Nullable
         public PowerShellInstallation getInstallation(String name) {
-            for (PowerShellInstallation i : getInstallations()) {
-                if (i.getName().equals(name)) {
-                    return i;
-                }
-            }
-            return null;
+            return getIndex().get(name);
         }
 
+        /**
+         * @deprecated falls back to the first installation, whatever the node; use {@link #selectInstallation}
+         */
+        @Deprecated
         @Nullable
         public PowerShellInstallation getAnyInstallation(String name) {
             PowerShellInstallation defaultInstallation = getInstallation(name);
@@ -185,5 +276,32 @@ public class PowerShellInstallation extends ToolInstallation implements NodeSpec
             }
             return null;
         }
+
+        /**
+         * Selects the installation of a step that does not name one, or names one that does not exist:
+         * <ol>
+         * <li>the installation restricted to a label matching the node with the highest version,</li>
+         * <li>or else the default installation of the platform, {@code defaultName},</li>
+         * <li>or else the installation available on the node with the highest version.</li>
+         * </ol>
+         * Only installations of at least {@code minimumVersion} are considered, if given, and installations without
+         * a version only fit when it is not.
+         *
+         * @return {@code null} if no installation fits
+         */
+        @CheckForNull
+        public PowerShellInstallation selectInstallation(@CheckForNull Node node, @NonNull String defaultName,
+                                                         @CheckForNull String minimumVersion) {
+            PowerShellInstallationIndex snapshot = getIndex();
+            PowerShellInstallation installation = snapshot.select(node, minimumVersion, true);
+            if (installation != null) {
+                return installation;
+            }
+            installation = snapshot.get(defaultName);
+            if (installation != null && minimumVersion == null && installation.getLabel() == null) {
+                return installation;
+            }
+            return snapshot.select(node, minimumVersion, false);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.util.VersionNumber;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable snapshot of the configured {@link PowerShellInstallation}s, indexed by name, with their label
+ * expressions parsed once.
+ * <p>
+ * {@link PowerShellInstallation.DescriptorImpl} rebuilds it whenever the installations change, so looking up an
+ * installation or selecting one for a node never scans the configuration.
+ */
+final class PowerShellInstallationIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellInstallationIndex.class.getName());
+
+    private final Map<String, PowerShellInstallation> byName;
+
+    /** Installations restricted to some nodes, from the highest version to the lowest */
+    private final List<Entry> labeled;
+
+    /** All installations, from the highest version to the lowest */
+    private final List<Entry> all;
+
+    PowerShellInstallationIndex(PowerShellInstallation[] installations) {
+        Map<String, PowerShellInstallation> names = new HashMap<>();
+        List<Entry> entries = new ArrayList<>();
+        for (PowerShellInstallation installation : installations) {
+            // the first of several installations with the same name wins, as it did with a linear scan
+            names.putIfAbsent(installation.getName(), installation);
+            entries.add(new Entry(installation, installation.getLabel() != null, parseLabel(installation),
+                    parseVersion(installation.getVersion())));
+        }
+        // stable, so installations of the same version keep their configuration order
+        entries.sort((a, b) -> {
+            if (a.version == null || b.version == null) {
+                return a.version == null ? (b.version == null ? 0 : 1) : -1;
+            }
+            return b.version.compareTo(a.version);
+        });
+        this.byName = Collections.unmodifiableMap(names);
+        this.all = List.copyOf(entries);
+        this.labeled = entries.stream().filter(Entry::restricted).toList();
+    }
+
+    @CheckForNull
+    PowerShellInstallation get(String name) {
+        return name != null ? byName.get(name) : null;
+    }
+
+    /**
+     * Picks the installation with the highest version among those available on {@code node} and at least
+     * {@code minimumVersion}.
+     *
+     * @param labeledOnly only consider the installations restricted by a label expression
+     * @return {@code null} if none fits
+     */
+    @CheckForNull
+    PowerShellInstallation select(@CheckForNull Node node, @CheckForNull String minimumVersion, boolean labeledOnly) {
+        VersionNumber minimum = parseVersion(minimumVersion);
+        for (Entry entry : labeledOnly ? labeled : all) {
+            if (entry.matches(node, minimum)) {
+                return entry.installation;
+            }
+        }
+        return null;
+    }
+
+    @CheckForNull
+    private static Label parseLabel(PowerShellInstallation installation) {
+        String expression = installation.getLabel();
+        if (expression == null) {
+            return null;
+        }
+        try {
+            return Label.parseExpression(expression);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Invalid label expression of PowerShell installation " + installation.getName(), e);
+            return null;
+        }
+    }
+
+    @CheckForNull
+    static VersionNumber parseVersion(@CheckForNull String version) {
+        return version != null && !version.isBlank() ? new VersionNumber(version.trim()) : null;
+    }
+
+    /**
+     * @param restricted whether the installation has a label expression
+     * @param label      the parsed label expression, {@code null} if there is none or it is invalid, in which case
+     *                   the installation matches no node
+     */
+    private record Entry(@NonNull PowerShellInstallation installation, boolean restricted, @CheckForNull Label label,
+                         @CheckForNull VersionNumber version) {
+
+        boolean matches(@CheckForNull Node node, @CheckForNull VersionNumber minimum) {
+            if (minimum != null && (version == null || version.isOlderThan(minimum))) {
+                return false;
+            }
+            return !restricted || label != null && node != null && label.matches(node);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package hudson.plugins.powershell;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rolling histogram of latencies with power of two millisecond buckets.
+ * <p>
+ * Recording only increments a counter, so it does not allocate. The histogram keeps two generations of counters:
+ * every {@code window} the older one is cleared and becomes the current one, so the histogram always covers
+ * between one and two windows of recent history.
+ */
+final class PowerShellLatencyHistogram {
+
+    /** Bucket {@code i > 0} counts latencies in [2^(i-1), 2^i) ms, the last one everything above */
+    static final int BUCKETS = 24;
+
+    private final long window;
+
+    private final AtomicLongArray[] generations = {new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS)};
+
+    private volatile int current;
+
+    private volatile long rotated;
+
+    /**
+     * @param window length of a generation, in nanoseconds
+     */
+    PowerShellLatencyHistogram(long window) {
+        this.window = window;
+        this.rotated = System.nanoTime();
+    }
+
+    void record(long nanos) {
+        rotateIfNeeded(System.nanoTime());
+        generations[current].incrementAndGet(bucket(nanos));
+    }
+
+    static int bucket(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    /**
+     * Upper bound of a bucket in milliseconds, {@link Long#MAX_VALUE} for the last one.
+     */
+    static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Counts of both generations added up.
+     */
+    long[] getCounts() {
+        rotateIfNeeded(System.nanoTime());
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray generation : generations) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += generation.get(i);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Upper bound in milliseconds of the bucket holding the given percentile, {@code -1} without any sample.
+     */
+    static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    private void rotateIfNeeded(long now) {
+        if (now - rotated < window) {
+            return;
+        }
+        synchronized (this) {
+            if (now - rotated < window) {
+                return;
+            }
+            int next = 1 - current;
+            AtomicLongArray generation = generations[next];
+            if (now - rotated >= 2 * window) {
+                // nothing was recorded during a whole window, so the current generation is stale too
+                clear(generations[current]);
+            }
+            clear(generation);
+            current = next;
+            rotated = now;
+        }
+    }
+
+    private static void clear(AtomicLongArray generation) {
+        for (int i = 0; i < generation.length(); i++) {
+            generation.set(i, 0);
+        }
+    }
+}
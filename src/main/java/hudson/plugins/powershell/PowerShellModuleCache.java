@@ -0,0 +1,133 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.NullStream;
+import jenkins.util.SystemProperties;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent module analysis cache of an installation on a node.
+ * <p>
+ * PowerShell keeps the commands exported by the modules found in {@code PSModulePath} in a module analysis cache,
+ * which lives in the profile of the user by default. On agents running as service accounts with a throwaway profile,
+ * every step rebuilds it when it first looks up a command. Pointing {@value #ENVIRONMENT_VARIABLE} at a directory
+ * below the node root, one per installation, makes the cache survive across steps. The first step using it runs a
+ * warmup pass that analyses all available modules, so that later steps start with a complete cache. The warmup runs
+ * once per directory: steps starting while it runs skip it, and a failed warmup is only retried by the first step
+ * starting {@link #RETRY_AFTER} after it, so that a broken module does not slow down every step.
+ */
+final class PowerShellModuleCache {
+
+    static final String DIRECTORY = "powershell-cache";
+
+    static final String ENVIRONMENT_VARIABLE = "PSModuleAnalysisCachePath";
+
+    /** Name of the cache file in the directory */
+    static final String CACHE_FILE = "ModuleAnalysisCache";
+
+    /** Created once the warmup pass succeeded */
+    static final String MARKER = ".warm";
+
+    /** Created once the warmup pass failed, holding its exit code */
+    static final String FAILED_MARKER = ".warmup-failed";
+
+    /** Non-final for tests */
+    static long RETRY_AFTER = TimeUnit.MINUTES.toMillis(
+            SystemProperties.getLong(PowerShellModuleCache.class.getName() + ".retryAfterMinutes", 60L));
+
+    /** Directories being warmed up by a step of this JVM */
+    private static final Set<Path> WARMING_UP = ConcurrentHashMap.newKeySet();
+
+    private static final String WARMUP_COMMAND =
+            "$null = Get-Module -ListAvailable; $null = Get-Command -CommandType Alias, Function, Cmdlet";
+
+    private PowerShellModuleCache() {
+    }
+
+    /**
+     * Directory of the cache of an installation, named after a hash of the installation and its executable so that
+     * changing the executable starts over with an empty cache.
+     */
+    static FilePath getDirectory(@NonNull FilePath nodeRoot, @NonNull String installation, @NonNull String executable) {
+        return nodeRoot.child(DIRECTORY).child(PowerShellScriptCache.hash(installation + '\0' + executable).substring(0, 16));
+    }
+
+    /**
+     * Runs the warmup pass unless it already ran in {@code directory} or is running there. Must be called on the node
+     * owning the directory.
+     * <p>
+     * The warmup is best effort: should it fail, steps still run and fill the cache as they go.
+     *
+     * @param environment environment of the step, pointing {@value #ENVIRONMENT_VARIABLE} into {@code directory}
+     * @return whether the warmup ran
+     */
+    static boolean warmUpLocally(Path directory, String executable, Map<String, String> environment, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (isDone(directory) || !WARMING_UP.add(directory)) {
+            return false;
+        }
+        try {
+            // another step may have finished the warmup since the first look
+            if (isDone(directory)) {
+                return false;
+            }
+            Files.createDirectories(directory);
+            Files.deleteIfExists(directory.resolve(FAILED_MARKER));
+
+            int exitCode = new Launcher.LocalLauncher(listener).launch()
+                    .cmds(List.of(executable, "-NoLogo", "-NonInteractive", "-NoProfile", "-Command", WARMUP_COMMAND))
+                    .envs(environment)
+                    .stdout(new NullStream())
+                    .stderr(new NullStream())
+                    .pwd(directory.toFile())
+                    .quiet(true)
+                    .join();
+            if (exitCode != 0) {
+                listener.getLogger().println(Messages.PowerShell_ModuleCacheWarmupFailed(exitCode, directory,
+                        TimeUnit.MILLISECONDS.toMinutes(RETRY_AFTER)));
+                createMarker(directory.resolve(FAILED_MARKER), Integer.toString(exitCode));
+            } else {
+                createMarker(directory.resolve(MARKER), "");
+            }
+            return true;
+        } finally {
+            WARMING_UP.remove(directory);
+        }
+    }
+
+    private static boolean isDone(Path directory) throws IOException {
+        if (Files.exists(directory.resolve(MARKER))) {
+            return true;
+        }
+        try {
+            FileTime failed = Files.getLastModifiedTime(directory.resolve(FAILED_MARKER));
+            return System.currentTimeMillis() - failed.toMillis() < RETRY_AFTER;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static void createMarker(Path marker, String contents) throws IOException {
+        try {
+            Files.writeString(marker, contents, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+        } catch (FileAlreadyExistsException e) {
+            // warmed up concurrently by a step of another JVM sharing the directory
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Keeps progress redraws, terminal escape codes and repeated lines of PowerShell out of the build log.
+ * <p>
+ * Set on a {@link PowerShell} step, or on a {@link PowerShellInstallation} as the default of the steps using it.
+ * Filtering is done by {@link FilteredOutputStream} as the output streams by, in constant memory.
+ */
+public class PowerShellOutputFilter extends AbstractDescribableImpl<PowerShellOutputFilter> implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    /** Lines longer than this are passed through as they come */
+    static final int MAX_LINE_LENGTH = 8192;
+
+    private final boolean dropProgress;
+
+    private final boolean stripAnsi;
+
+    private final int maxRepeatedLines;
+
+    /**
+     * @param dropProgress     silences progress records and drops lines redrawn with a carriage return
+     * @param stripAnsi        removes VT escape sequences, such as colors and cursor movements
+     * @param maxRepeatedLines number of consecutive identical lines to keep, 0 to keep all of them
+     */
+    @DataBoundConstructor
+    public PowerShellOutputFilter(boolean dropProgress, boolean stripAnsi, int maxRepeatedLines) {
+        this.dropProgress = dropProgress;
+        this.stripAnsi = stripAnsi;
+        this.maxRepeatedLines = Math.max(0, maxRepeatedLines);
+    }
+
+    public boolean isDropProgress() {
+        return dropProgress;
+    }
+
+    public boolean isStripAnsi() {
+        return stripAnsi;
+    }
+
+    public int getMaxRepeatedLines() {
+        return maxRepeatedLines;
+    }
+
+    FilteredOutputStream decorate(OutputStream out) {
+        return new FilteredOutputStream(out, this);
+    }
+
+    /**
+     * Filters the output line by line. Only complete lines are written through, so {@link #finish()} must be called
+     * once the output is complete.
+     */
+    static final class FilteredOutputStream extends OutputStream {
+
+        private static final int NONE = 0;
+        private static final int ESCAPE = 1;
+        private static final int CSI = 2;
+        private static final int OSC = 3;
+        private static final int OSC_ESCAPE = 4;
+
+        private final OutputStream out;
+        private final PowerShellOutputFilter filter;
+
+        private final byte[] line = new byte[MAX_LINE_LENGTH];
+        private int length;
+        private boolean carriageReturn;
+        private int escape = NONE;
+
+        private final byte[] previous = new byte[MAX_LINE_LENGTH];
+        /** Length of the previous line, {@code -1} if it cannot be compared */
+        private int previousLength = -1;
+        private long repeats;
+
+        private FilteredOutputStream(OutputStream out, PowerShellOutputFilter filter) {
+            this.out = out;
+            this.filter = filter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            b &= 0xff;
+            if (filter.stripAnsi && isEscapeSequence(b)) {
+                return;
+            }
+            if (carriageReturn) {
+                carriageReturn = false;
+                if (b == '\n') {
+                    endLine(true);
+                    return;
+                }
+                if (filter.dropProgress) {
+                    // the line is being redrawn, only its last state matters
+                    length = 0;
+                } else {
+                    append('\r');
+                }
+            }
+            if (b == '\r') {
+                carriageReturn = true;
+            } else if (b == '\n') {
+                endLine(false);
+            } else {
+                append(b);
+            }
+        }
+
+        /**
+         * Writes what is left of the output.
+         */
+        void finish() throws IOException {
+            if (carriageReturn && !filter.dropProgress) {
+                append('\r');
+            }
+            carriageReturn = false;
+            writeRepeats();
+            out.write(line, 0, length);
+            length = 0;
+            out.flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        private boolean isEscapeSequence(int b) {
+            switch (escape) {
+                case NONE:
+                    if (b == 0x1b) {
+                        escape = ESCAPE;
+                        return true;
+                    }
+                    return false;
+                case ESCAPE:
+                    escape = b == '[' ? CSI : b == ']' ? OSC : NONE;
+                    return true;
+                case CSI:
+                    if (b >= 0x40 && b <= 0x7e) {
+                        escape = NONE;
+                    }
+                    return true;
+                case OSC:
+                    if (b == 0x07) {
+                        escape = NONE;
+                    } else if (b == 0x1b) {
+                        escape = OSC_ESCAPE;
+                    }
+                    return true;
+                default:
+                    escape = NONE;
+                    return true;
+            }
+        }
+
+        private void append(int b) throws IOException {
+            if (length == line.length) {
+                writeRepeats();
+                out.write(line, 0, length);
+                length = 0;
+                previousLength = -1;
+            }
+            line[length++] = (byte) b;
+        }
+
+        private void endLine(boolean crlf) throws IOException {
+            if (filter.maxRepeatedLines > 0 && length == previousLength
+                    && Arrays.equals(line, 0, length, previous, 0, length)) {
+                if (++repeats > filter.maxRepeatedLines) {
+                    length = 0;
+                    return;
+                }
+            } else {
+                writeRepeats();
+                System.arraycopy(line, 0, previous, 0, length);
+                previousLength = length;
+            }
+            out.write(line, 0, length);
+            if (crlf) {
+                out.write('\r');
+            }
+            out.write('\n');
+            length = 0;
+        }
+
+        private void writeRepeats() throws IOException {
+            if (repeats > filter.maxRepeatedLines) {
+                String message = Messages.PowerShell_RepeatedLines(repeats - filter.maxRepeatedLines) + System.lineSeparator();
+                out.write(message.getBytes(StandardCharsets.UTF_8));
+            }
+            repeats = 0;
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<PowerShellOutputFilter> {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Output filter";
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.model.Computer;
+
+import java.io.File;
+
+/**
+ * Operating system family of a node.
+ * <p>
+ * Core finds out whether an agent runs Unix once when it connects and keeps the answer with its {@link Computer},
+ * see {@link Computer#isUnix()}, so looking it up while running a step never needs a call to the agent. A
+ * reconnection asks again.
+ */
+final class PowerShellPlatform {
+
+    private PowerShellPlatform() {
+    }
+
+    /**
+     * Whether the node {@code path} belongs to runs Windows, {@code null} if that is not known, e.g. because the
+     * agent is not connected.
+     */
+    @CheckForNull
+    static Boolean isWindows(@NonNull FilePath path) {
+        if (!path.isRemote()) {
+            return File.separatorChar == '\\';
+        }
+        Computer computer = path.toComputer();
+        Boolean unix = computer != null ? computer.isUnix() : null;
+        return unix != null ? !unix : null;
+    }
+}
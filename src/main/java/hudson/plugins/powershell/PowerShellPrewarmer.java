@@ -0,0 +1,56 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Project;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prepares the {@link PowerShell} steps of a build on its node as soon as the build starts, see
+ * {@link PowerShell#prewarm}, so that installation, tool installers and staging run in the background while the
+ * checkout and the earlier build steps do, instead of on the critical path of each step. The output of the tool
+ * installers goes to the log of the build, failures are left for the steps to run into again and report.
+ */
+@Extension
+public class PowerShellPrewarmer extends RunListener<Run<?, ?>> {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellPrewarmer.class.getName());
+
+    @Override
+    public void onStarted(Run<?, ?> run, TaskListener listener) {
+        if (!(run instanceof AbstractBuild<?, ?> build) || !(build.getProject() instanceof Project<?, ?> project)
+                || !Jenkins.get().getDescriptorByType(PowerShell.DescriptorImpl.class).isPrewarm()) {
+            return;
+        }
+        Node node = build.getBuiltOn();
+        List<PowerShell> steps = project.getBuildersList().getAll(PowerShell.class);
+        if (node == null || steps.isEmpty()) {
+            return;
+        }
+        Computer.threadPoolForRemoting.submit(() -> prewarm(node, steps, build.getFullDisplayName(), listener));
+    }
+
+    private static void prewarm(@NonNull Node node, List<PowerShell> steps, String build, TaskListener listener) {
+        for (PowerShell step : steps) {
+            try {
+                step.prewarm(node, listener);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to prepare a PowerShell step of " + build + " on " + node.getDisplayName(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Serial;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Side channel through which scripts hand results to the build, instead of printing them for later steps to find
+ * in the build log.
+ * <p>
+ * Every step gets the path of a new file in {@value #VARIABLE}, to which the script may append JSON objects, one
+ * per line, for example with {@code @{version = "1.2"} | ConvertTo-Json -Compress | Add-Content $env:JENKINS_POWERSHELL_RESULTS}.
+ * Once PowerShell exits, the file is read on the agent and deleted, so the cost grows with the results rather
+ * than with the output. The properties of the objects end up in {@link PowerShellResultsAction}.
+ */
+final class PowerShellResults {
+
+    static final String VARIABLE = "JENKINS_POWERSHELL_RESULTS";
+
+    /** Number of characters read at most from the file of a step */
+    static final int MAX_SIZE = 1024 * 1024;
+
+    private PowerShellResults() {
+    }
+
+    /**
+     * Location of the results file of a new step.
+     *
+     * @param directory temporary directory of the workspace, {@code null} if there is none
+     * @return {@code null} if there is no place to put the file
+     */
+    @CheckForNull
+    static FilePath newFile(@CheckForNull FilePath directory) {
+        return directory != null ? directory.child("powershell-results-" + UUID.randomUUID() + ".ndjson") : null;
+    }
+
+    /**
+     * Creates the directory of the results file named in the environment, if any. Must be called on the node
+     * running PowerShell.
+     */
+    static void prepareLocally(Map<String, String> environment) throws IOException {
+        String file = environment.get(VARIABLE);
+        if (file != null) {
+            Files.createDirectories(new File(file).toPath().getParent());
+        }
+    }
+
+    /**
+     * Reads and deletes the results file named in the environment. Must be called on the node running PowerShell.
+     */
+    static Map<String, String> readLocally(Map<String, String> environment, TaskListener listener) throws IOException {
+        String file = environment.get(VARIABLE);
+        return file != null ? readLocally(new File(file).toPath(), listener) : new LinkedHashMap<>();
+    }
+
+    static Map<String, String> readLocally(Path file, TaskListener listener) throws IOException {
+        Map<String, String> results = new LinkedHashMap<>();
+        if (!Files.isRegularFile(file)) {
+            return results;
+        }
+        try (BufferedReader reader = openReader(Files.newInputStream(file))) {
+            long read = 0;
+            int number = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                read += line.length() + 1;
+                if (read > MAX_SIZE) {
+                    listener.error(Messages.PowerShell_ResultsTooLarge(MAX_SIZE));
+                    break;
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JSONObject object = JSONObject.fromObject(line.strip());
+                    for (Object key : object.keySet()) {
+                        Object value = object.get(key);
+                        results.put(key.toString(), value instanceof JSONNull ? "" : value.toString());
+                    }
+                } catch (JSONException e) {
+                    listener.error(Messages.PowerShell_InvalidResult(number));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        return results;
+    }
+
+    /**
+     * Windows PowerShell writes UTF-16 with {@code Out-File} and {@code >}, while {@code Add-Content} and
+     * PowerShell 7 use UTF-8. Both may start with a byte order mark.
+     */
+    private static BufferedReader openReader(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 3);
+        byte[] mark = new byte[3];
+        int length = pushback.readNBytes(mark, 0, 3);
+        Charset charset = StandardCharsets.UTF_8;
+        int skip = 0;
+        if (length >= 2 && (mark[0] & 0xFF) == 0xFF && (mark[1] & 0xFF) == 0xFE) {
+            charset = StandardCharsets.UTF_16LE;
+            skip = 2;
+        } else if (length >= 2 && (mark[0] & 0xFF) == 0xFE && (mark[1] & 0xFF) == 0xFF) {
+            charset = StandardCharsets.UTF_16BE;
+            skip = 2;
+        } else if (length == 3 && (mark[0] & 0xFF) == 0xEF && (mark[1] & 0xFF) == 0xBB && (mark[2] & 0xFF) == 0xBF) {
+            skip = 3;
+        }
+        pushback.unread(mark, skip, length - skip);
+        return new BufferedReader(new InputStreamReader(pushback, charset));
+    }
+
+    /**
+     * Reads the results file on its node, for steps whose process is started from the controller.
+     */
+    static final class Read extends MasterToSlaveFileCallable<Map<String, String>> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final TaskListener listener;
+
+        Read(TaskListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public Map<String, String> invoke(File file, VirtualChannel channel) throws IOException {
+            return readLocally(file.toPath(), listener);
+        }
+    }
+}
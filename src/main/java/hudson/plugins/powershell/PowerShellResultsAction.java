@@ -0,0 +1,93 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Results handed over by the PowerShell steps of a build through {@link PowerShellResults}, shown on the build page,
+ * exported through the REST API and passed to the following steps as {@value #PREFIX}<em>NAME</em> environment
+ * variables. A result written by a later step replaces the one of an earlier step.
+ */
+@ExportedBean
+public class PowerShellResultsAction implements RunAction2, EnvironmentContributingAction {
+
+    static final String PREFIX = "POWERSHELL_RESULT_";
+
+    private static final Pattern VARIABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final Map<String, String> results = new LinkedHashMap<>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * Adds the results of a step to the action of {@code run}, creating it if needed.
+     */
+    static void record(Run<?, ?> run, Map<String, String> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        synchronized (run) {
+            PowerShellResultsAction action = run.getAction(PowerShellResultsAction.class);
+            if (action == null) {
+                action = new PowerShellResultsAction();
+                run.addAction(action);
+            }
+            synchronized (action) {
+                action.results.putAll(results);
+            }
+        }
+    }
+
+    @Exported
+    public synchronized Map<String, String> getResults() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(results));
+    }
+
+    @Override
+    public void buildEnvironment(@NonNull Run<?, ?> run, @NonNull EnvVars env) {
+        getResults().forEach((name, value) -> {
+            if (VARIABLE_NAME.matcher(name).matches()) {
+                env.put(PREFIX + name, value);
+            }
+        });
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "PowerShell results";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+}
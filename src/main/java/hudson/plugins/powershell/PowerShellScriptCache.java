@@ -0,0 +1,219 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed store of PowerShell scripts on every node.
+ * <p>
+ * Scripts are named after the SHA-256 of their contents and kept in {@value #DIRECTORY} below the node root, so an
+ * unchanged script is written once and reused by every following build instead of being written and deleted by
+ * every step. {@link Sweeper} removes the least recently used scripts once the store grows over its size limit.
+ */
+final class PowerShellScriptCache {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellScriptCache.class.getName());
+
+    static final String DIRECTORY = "powershell-scripts";
+
+    /** Scripts used more recently than this are never removed, as a build may be about to run them. */
+    private static final long MINIMUM_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private PowerShellScriptCache() {
+    }
+
+    /**
+     * Makes sure the script is present in the store of the node and marks it as recently used.
+     *
+     * @return the staged script
+     */
+    static FilePath stage(@NonNull FilePath nodeRoot, @NonNull String contents, @NonNull String extension)
+            throws IOException, InterruptedException {
+        FilePath script = getScript(nodeRoot, contents, extension);
+        PowerShellChannelCalls.act(script.getParent(), new Stage(script.getName(), contents));
+        return script;
+    }
+
+    /**
+     * Location of the script in the store of the node, whether it has been staged or not.
+     */
+    static FilePath getScript(@NonNull FilePath nodeRoot, @NonNull String contents, @NonNull String extension) {
+        return nodeRoot.child(DIRECTORY).child(hash(contents) + extension);
+    }
+
+    static String hash(String contents) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Util.toHexString(digest.digest(contents.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the script unless it is already present, in which case it is only marked as recently used.
+     * Must be called on the node owning the store.
+     */
+    static void stageLocally(Path script, String contents) throws IOException {
+        if (Files.isRegularFile(script)) {
+            Files.setLastModifiedTime(script, FileTime.fromMillis(System.currentTimeMillis()));
+            return;
+        }
+
+        Files.createDirectories(script.getParent());
+        Path temp = Files.createTempFile(script.getParent(), "jenkins", ".tmp");
+        try {
+            Files.writeString(temp, contents, Charset.defaultCharset());
+            try {
+                Files.move(temp, script, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, script, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // a concurrent build may have staged the same script in the meantime
+            if (!Files.isRegularFile(script)) {
+                throw e;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static final class Stage extends MasterToSlaveFileCallable<Void> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final String name;
+        private final String contents;
+
+        private Stage(String name, String contents) {
+            this.name = name;
+            this.contents = contents;
+        }
+
+        @Override
+        public Void invoke(File directory, VirtualChannel channel) throws IOException {
+            stageLocally(directory.toPath().resolve(name), contents);
+            return null;
+        }
+    }
+
+    private static final class Sweep extends MasterToSlaveFileCallable<Integer> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final long maxBytes;
+
+        private Sweep(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public Integer invoke(File directory, VirtualChannel channel) {
+            File[] files = directory.listFiles(File::isFile);
+            if (files == null) {
+                return 0;
+            }
+            List<File> scripts = new ArrayList<>(Arrays.asList(files));
+            scripts.sort(Comparator.comparingLong(File::lastModified));
+
+            long total = 0;
+            for (File script : scripts) {
+                total += script.length();
+            }
+            long threshold = System.currentTimeMillis() - MINIMUM_AGE;
+            int deleted = 0;
+            for (File script : scripts) {
+                if (total <= maxBytes || script.lastModified() > threshold) {
+                    break;
+                }
+                long length = script.length();
+                if (script.delete()) {
+                    total -= length;
+                    deleted++;
+                }
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * Trims the script store and the {@link PowerShellStepCache} of every online node down to their configured size.
+     */
+    @Extension
+    public static final class Sweeper extends AsyncPeriodicWork {
+
+        public Sweeper() {
+            super("PowerShell script cache sweeper");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.HOURS.toMillis(1);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws InterruptedException {
+            final var descriptor = Jenkins.get().getDescriptorByType(PowerShell.DescriptorImpl.class);
+            long scriptCacheBytes = descriptor.getScriptCacheSize() * 1024L * 1024L;
+            long stepCacheBytes = descriptor.getStepCacheSize() * 1024L * 1024L;
+
+            List<Node> nodes = new ArrayList<>(Jenkins.get().getNodes());
+            nodes.add(Jenkins.get());
+            for (Node node : nodes) {
+                Computer computer = node.toComputer();
+                FilePath root = node.getRootPath();
+                if (computer == null || computer.isOffline() || root == null) {
+                    continue;
+                }
+                if (descriptor.isCacheScripts()) {
+                    sweep(node, root.child(DIRECTORY), scriptCacheBytes);
+                }
+                sweep(node, root.child(PowerShellStepCache.DIRECTORY), stepCacheBytes);
+            }
+        }
+
+        private static void sweep(Node node, FilePath directory, long maxBytes) throws InterruptedException {
+            try {
+                int deleted = PowerShellChannelCalls.act(directory, new Sweep(maxBytes));
+                if (deleted > 0) {
+                    LOGGER.log(Level.FINE, "Removed {0} files from {1} on {2}",
+                            new Object[] {deleted, directory.getName(), node.getDisplayName()});
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to sweep " + directory.getName() + " on " + node.getDisplayName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scripts shared by the {@link PowerShell} steps of all jobs, referenced by name through
+ * {@link PowerShellScriptSource.LibraryScript}.
+ * <p>
+ * The configuration only holds the names and the SHA-256 of the scripts. Their contents are kept in
+ * {@value #DIRECTORY} below the Jenkins home, one file per hash, and read when a step runs. With
+ * {@link PowerShell.DescriptorImpl#isCacheScripts() cached scripts}, agents keep them by hash as well.
+ */
+@Extension
+public class PowerShellScriptLibrary extends GlobalConfiguration {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellScriptLibrary.class.getName());
+
+    static final String DIRECTORY = "powershell-script-library";
+
+    private volatile List<Script> scripts = new ArrayList<>();
+
+    public PowerShellScriptLibrary() {
+        load();
+    }
+
+    public static PowerShellScriptLibrary get() {
+        return ExtensionList.lookupSingleton(PowerShellScriptLibrary.class);
+    }
+
+    @Override
+    public boolean configure(StaplerRequest2 req, JSONObject json) {
+        // an empty library is not part of the submitted form
+        scripts = new ArrayList<>();
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+    public List<Script> getScripts() {
+        return Collections.unmodifiableList(scripts);
+    }
+
+    /**
+     * Replaces the scripts of the library, writing the contents of new scripts and removing those no longer used.
+     */
+    @DataBoundSetter
+    public void setScripts(List<Script> scripts) throws IOException {
+        Path directory = getDirectory();
+        Files.createDirectories(directory);
+        Set<String> hashes = new HashSet<>();
+        for (Script script : scripts) {
+            script.store(directory);
+            hashes.add(script.getHash());
+        }
+        this.scripts = new ArrayList<>(scripts);
+
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                if (!hashes.contains(file.getFileName().toString().replace(".ps1", ""))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Contents of a script of the library.
+     *
+     * @return {@code null} if there is no such script
+     */
+    @CheckForNull
+    String load(String name) throws IOException {
+        for (Script script : scripts) {
+            if (script.getName().equals(name)) {
+                return Files.readString(getDirectory().resolve(script.getHash() + ".ps1"), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static Path getDirectory() {
+        return Jenkins.get().getRootDir().toPath().resolve(DIRECTORY);
+    }
+
+    /**
+     * A script of the library. Its contents are only held while the configuration is submitted or shown.
+     */
+    public static final class Script extends AbstractDescribableImpl<Script> {
+
+        private final String name;
+
+        private final String hash;
+
+        private transient String contents;
+
+        @DataBoundConstructor
+        public Script(String name, String contents) {
+            this.name = Util.fixNull(name).trim();
+            this.contents = Util.fixNull(contents);
+            this.hash = PowerShellScriptCache.hash(this.contents);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * Contents of the script, read from the library directory unless it has just been submitted.
+         */
+        public String getContents() {
+            if (contents != null) {
+                return contents;
+            }
+            try {
+                return Files.readString(getDirectory().resolve(hash + ".ps1"), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read PowerShell library script " + name, e);
+                return "";
+            }
+        }
+
+        private void store(Path directory) throws IOException {
+            Path file = directory.resolve(hash + ".ps1");
+            if (contents != null && !Files.isRegularFile(file)) {
+                Files.writeString(file, contents, StandardCharsets.UTF_8);
+            }
+            contents = null;
+        }
+
+        @Extension
+        public static final class DescriptorImpl extends Descriptor<Script> {
+            @NonNull
+            @Override
+            public String getDisplayName() {
+                return "PowerShell script";
+            }
+        }
+    }
+}
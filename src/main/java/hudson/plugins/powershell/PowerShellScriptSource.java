@@ -0,0 +1,118 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.model.TaskListener;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.verb.POST;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Where the script of a {@link PowerShell} step comes from when it is not kept in the job configuration.
+ * <p>
+ * The script is only loaded when the step runs, so jobs with large scripts do not hold them in memory.
+ */
+public abstract class PowerShellScriptSource extends AbstractDescribableImpl<PowerShellScriptSource> {
+
+    /**
+     * Loads the script for a build.
+     *
+     * @throws AbortException if the script cannot be found
+     */
+    @NonNull
+    abstract String load(FilePath ws, TaskListener listener) throws IOException, InterruptedException;
+
+    /**
+     * Script file in the workspace, typically checked out along with the sources.
+     */
+    public static final class WorkspaceFile extends PowerShellScriptSource {
+
+        private final String path;
+
+        @DataBoundConstructor
+        public WorkspaceFile(String path) {
+            this.path = Util.fixNull(path).trim();
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        @NonNull
+        @Override
+        String load(FilePath ws, TaskListener listener) throws IOException, InterruptedException {
+            FilePath file = ws.child(path);
+            if (path.isEmpty() || !file.exists()) {
+                throw new AbortException(Messages.PowerShell_ScriptNotFound(path));
+            }
+            try (var in = file.read()) {
+                return new String(in.readAllBytes(), Charset.defaultCharset());
+            }
+        }
+
+        @Extension
+        public static final class DescriptorImpl extends Descriptor<PowerShellScriptSource> {
+            @NonNull
+            @Override
+            public String getDisplayName() {
+                return "Workspace file";
+            }
+        }
+    }
+
+    /**
+     * Script of the {@link PowerShellScriptLibrary}.
+     */
+    public static final class LibraryScript extends PowerShellScriptSource {
+
+        private final String name;
+
+        @DataBoundConstructor
+        public LibraryScript(String name) {
+            this.name = Util.fixNull(name).trim();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @NonNull
+        @Override
+        String load(FilePath ws, TaskListener listener) throws IOException {
+            String script = PowerShellScriptLibrary.get().load(name);
+            if (script == null) {
+                throw new AbortException(Messages.PowerShell_LibraryScriptNotFound(name));
+            }
+            return script;
+        }
+
+        @Extension
+        public static final class DescriptorImpl extends Descriptor<PowerShellScriptSource> {
+            @NonNull
+            @Override
+            public String getDisplayName() {
+                return "Script library";
+            }
+
+            @POST
+            public ListBoxModel doFillNameItems() {
+                Jenkins.get().checkPermission(Item.CONFIGURE);
+                ListBoxModel model = new ListBoxModel();
+                for (PowerShellScriptLibrary.Script script : PowerShellScriptLibrary.get().getScripts()) {
+                    model.add(script.getName());
+                }
+                return model;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Item;
+import hudson.model.TaskListener;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.durabletask.DurableTask;
+import org.jenkinsci.plugins.workflow.steps.GeneralNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.durable_task.DurableTaskStep;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * Pipeline step running a PowerShell script with the executable of a {@link PowerShellInstallation}.
+ * <p>
+ * Unlike {@link PowerShell}, the step does not hold an executor thread while the script runs: it launches the
+ * process and follows it asynchronously, surviving controller restarts. {@code returnStdout}, {@code returnStatus},
+ * {@code encoding} and {@code label} work as for the {@code powershell} step, the output being captured to a file on
+ * the node rather than in memory.
+ * <p>
+ * Resolving the installation may run tool installers and probing its version launches PowerShell, so both are done
+ * on a background thread before the script is launched, rather than on the CPS VM thread of the build. A restart
+ * while they are under way fails the step, as for other non-blocking steps.
+ */
+public class PowerShellScriptStep extends DurableTaskStep {
+
+    private final String script;
+
+    private String installation;
+
+    private transient String executable;
+
+    private transient PowerShellVersion version;
+
+    @DataBoundConstructor
+    public PowerShellScriptStep(String script) {
+        this.script = Util.fixNull(script);
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    @CheckForNull
+    public String getInstallation() {
+        return installation;
+    }
+
+    @DataBoundSetter
+    public void setInstallation(@CheckForNull String installation) {
+        this.installation = Util.fixEmptyAndTrim(installation);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(context, this);
+    }
+
+    @Override
+    protected DurableTask task() {
+        PowerShellToolScript task = new PowerShellToolScript(script);
+        task.setInstallation(installation);
+        if (executable != null) {
+            task.setResolved(executable, version);
+        }
+        return task;
+    }
+
+    /**
+     * Resolves the installation and probes its version in the background, then launches the script with the
+     * execution of {@link DurableTaskStep}, to which it hands over.
+     */
+    private static final class Execution extends GeneralNonBlockingStepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient PowerShellScriptStep step;
+
+        private volatile StepExecution durable;
+
+        Execution(StepContext context, PowerShellScriptStep step) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            run(() -> {
+                FilePath workspace = getContext().get(FilePath.class);
+                TaskListener listener = getContext().get(TaskListener.class);
+                step.executable = PowerShell.resolveExecutable(step.installation, workspace, listener);
+                step.version = PowerShellVersion.of(workspace, step.executable, getContext().get(Launcher.class),
+                        getContext().get(EnvVars.class));
+                StepExecution execution = step.startDurableTask(getContext());
+                durable = execution;
+                execution.start();
+            });
+            return false;
+        }
+
+        @Override
+        public void stop(@NonNull Throwable cause) throws Exception {
+            StepExecution execution = durable;
+            if (execution != null) {
+                execution.stop(cause);
+            } else {
+                super.stop(cause);
+            }
+        }
+
+        @Override
+        public void onResume() {
+            StepExecution execution = durable;
+            if (execution != null) {
+                execution.onResume();
+            } else {
+                super.onResume();
+            }
+        }
+
+        @Override
+        public String getStatus() {
+            StepExecution execution = durable;
+            return execution != null ? execution.getStatus() : super.getStatus();
+        }
+    }
+
+    private StepExecution startDurableTask(StepContext context) throws Exception {
+        return super.start(context);
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends DurableTaskStepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "powershellScript";
+        }
+
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "PowerShell script with a PowerShell installation";
+        }
+
+        @POST
+        public ListBoxModel doFillInstallationItems() {
+            Jenkins.get().checkPermission(Item.CONFIGURE);
+            ListBoxModel model = new ListBoxModel();
+            model.add(Messages.none(), "");
+            for (PowerShellInstallation tool : Jenkins.get().getDescriptorByType(PowerShellInstallation.DescriptorImpl.class).getInstallations()) {
+                model.add(tool.getName());
+            }
+            return model;
+        }
+    }
+}
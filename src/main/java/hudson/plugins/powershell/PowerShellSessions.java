@@ -0,0 +1,133 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.remoting.VirtualChannel;
+import hudson.tasks.Builder;
+import hudson.tasks.Project;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Groups adjacent {@link PowerShell} builders sharing a session, and ends the sessions a build left open.
+ * <p>
+ * Builders are adjacent when they follow each other in the build steps of a {@link Project} and all have
+ * {@link PowerShell#isShareSession()} set with the same installation and profile setting. Each group runs in one
+ * session of a pooled host, see {@link PowerShellHostPool#acquireSession}. The last builder of a group ends the
+ * session; if the build stops before reaching it, {@link RunListenerImpl} does.
+ */
+final class PowerShellSessions {
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellSessions.class.getName());
+
+    /** Sessions of running builds, by build and session, with the channel of the agent holding them */
+    private static final ConcurrentMap<String, Map<String, VirtualChannel>> OPEN = new ConcurrentHashMap<>();
+
+    private PowerShellSessions() {
+    }
+
+    /**
+     * Session of {@code builder} in {@code build}, named after the build and the first builder of its group.
+     */
+    @NonNull
+    static String getSession(@NonNull AbstractBuild<?, ?> build, @NonNull PowerShell builder) {
+        List<Builder> builders = getBuilders(build);
+        int start = indexOf(builders, builder);
+        while (start > 0 && builders.get(start - 1) instanceof PowerShell previous && previous.sharesSessionWith(builder)) {
+            start--;
+        }
+        return build.getExternalizableId() + "#" + start;
+    }
+
+    /**
+     * Whether {@code builder} is the last one of its group, which is always the case when the build steps are not
+     * known.
+     */
+    static boolean isLast(@NonNull AbstractBuild<?, ?> build, @NonNull PowerShell builder) {
+        List<Builder> builders = getBuilders(build);
+        int index = indexOf(builders, builder);
+        return index < 0 || index + 1 >= builders.size()
+                || !(builders.get(index + 1) instanceof PowerShell next && next.sharesSessionWith(builder));
+    }
+
+    static void opened(@NonNull AbstractBuild<?, ?> build, @NonNull String session, @CheckForNull VirtualChannel channel) {
+        if (channel != null) {
+            OPEN.computeIfAbsent(build.getExternalizableId(), k -> new ConcurrentHashMap<>()).put(session, channel);
+        }
+    }
+
+    static void ended(@NonNull AbstractBuild<?, ?> build, @NonNull String session) {
+        Map<String, VirtualChannel> sessions = OPEN.get(build.getExternalizableId());
+        if (sessions != null) {
+            sessions.remove(session);
+        }
+    }
+
+    private static List<Builder> getBuilders(AbstractBuild<?, ?> build) {
+        AbstractProject<?, ?> project = build.getProject();
+        return project instanceof Project<?, ?> p ? p.getBuilders() : List.of();
+    }
+
+    private static int indexOf(List<Builder> builders, PowerShell builder) {
+        for (int i = 0; i < builders.size(); i++) {
+            if (builders.get(i) == builder) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class EndSession extends MasterToSlaveCallable<Void, IOException> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final String session;
+
+        private EndSession(String session) {
+            this.session = session;
+        }
+
+        @Override
+        public Void call() {
+            PowerShellHostPool.get().endSession(session);
+            return null;
+        }
+    }
+
+    @Extension
+    public static final class RunListenerImpl extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+            Map<String, VirtualChannel> sessions = OPEN.remove(run.getExternalizableId());
+            if (sessions == null) {
+                return;
+            }
+            sessions.forEach((session, channel) -> {
+                try {
+                    PowerShellChannelCalls.call(channel, new EndSession(session));
+                } catch (IOException | InterruptedException e) {
+                    if (e instanceof InterruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    // the agent closes the session once it has been idle for too long
+                    LOGGER.log(Level.FINE, "Failed to end PowerShell session " + session, e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import jenkins.util.SystemProperties;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup latency and duration of PowerShell steps across all nodes, kept by node, installation and profile usage.
+ * <p>
+ * Memory is bounded by {@link #MAX_SERIES}: once that many combinations have been seen, further ones are counted in
+ * a single {@link #OTHER} series.
+ */
+final class PowerShellStartupStats {
+
+    static final int MAX_SERIES = SystemProperties.getInteger(PowerShellStartupStats.class.getName() + ".maxSeries", 1000);
+
+    /** Length of a histogram generation, see {@link PowerShellLatencyHistogram} */
+    static final long WINDOW = TimeUnit.MINUTES.toNanos(
+            SystemProperties.getLong(PowerShellStartupStats.class.getName() + ".windowMinutes", 60L));
+
+    static final String DEFAULT_INSTALLATION = "(default)";
+
+    static final String OTHER = "(other)";
+
+    static final String BUILT_IN = "(built-in)";
+
+    private static final PowerShellStartupStats INSTANCE = new PowerShellStartupStats();
+
+    private final ConcurrentMap<Key, Series> series = new ConcurrentHashMap<>();
+
+    static PowerShellStartupStats get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a step from its phase timings. Steps without output have no startup latency and only count towards
+     * the duration.
+     *
+     * @param node         name of the node, empty for the built-in node
+     * @param installation name of the installation the step resolved to, {@code null} if none
+     */
+    void record(@NonNull String node, @CheckForNull String installation, boolean useProfile, PowerShellTimings timings) {
+        Map<String, Long> phases = timings.getPhases();
+        Series s = getSeries(new Key(node.isEmpty() ? BUILT_IN : node, installation != null ? installation : DEFAULT_INSTALLATION, useProfile));
+        Long startup = phases.get(PowerShellTimings.STARTUP);
+        if (startup != null) {
+            s.startup.record(startup);
+        }
+        long duration = 0;
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            // installers run inside the resolution, so they are already part of it
+            if (!phase.getKey().equals(PowerShellTimings.INSTALLATION)) {
+                duration += phase.getValue();
+            }
+        }
+        s.duration.record(duration);
+    }
+
+    private Series getSeries(Key key) {
+        Series s = series.get(key);
+        if (s != null) {
+            return s;
+        }
+        if (series.size() >= MAX_SERIES) {
+            return series.computeIfAbsent(new Key(OTHER, OTHER, false), Series::new);
+        }
+        return series.computeIfAbsent(key, Series::new);
+    }
+
+    List<Series> getSeries() {
+        List<Series> result = new ArrayList<>(series.values());
+        result.sort(Comparator.comparing((Series s) -> s.key.node)
+                .thenComparing(s -> s.key.installation)
+                .thenComparing(s -> s.key.useProfile));
+        return result;
+    }
+
+    void clear() {
+        series.clear();
+    }
+
+    record Key(String node, String installation, boolean useProfile) {
+    }
+
+    static final class Series {
+
+        final Key key;
+
+        final PowerShellLatencyHistogram startup = new PowerShellLatencyHistogram(WINDOW);
+
+        final PowerShellLatencyHistogram duration = new PowerShellLatencyHistogram(WINDOW);
+
+        private Series(Key key) {
+            this.key = key;
+        }
+    }
+}
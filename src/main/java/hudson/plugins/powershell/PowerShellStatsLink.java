@@ -0,0 +1,159 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import hudson.security.Permission;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows the {@link PowerShellStartupStats} of the whole fleet, also available as JSON or XML through {@code api/}.
+ */
+@Extension
+@ExportedBean
+public class PowerShellStatsLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-terminal";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "PowerShell statistics";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Startup latency and duration of PowerShell steps by node and installation.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "powershell-stats";
+    }
+
+    @NonNull
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.SYSTEM_READ;
+    }
+
+    @NonNull
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    public Api getApi() {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        return new Api(this);
+    }
+
+    /** Upper bounds of the histogram buckets in milliseconds, the last bucket being unbounded */
+    @Exported
+    public long[] getBucketUpperBounds() {
+        long[] bounds = new long[PowerShellLatencyHistogram.BUCKETS];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = PowerShellLatencyHistogram.upperBound(i);
+        }
+        return bounds;
+    }
+
+    @Exported
+    public List<Series> getSeries() {
+        List<Series> result = new ArrayList<>();
+        for (PowerShellStartupStats.Series s : PowerShellStartupStats.get().getSeries()) {
+            result.add(new Series(s));
+        }
+        return result;
+    }
+
+    @Exported
+    public long getExecutableCacheHits() {
+        return PowerShellExecutableCache.get().getHits();
+    }
+
+    @Exported
+    public long getExecutableCacheMisses() {
+        return PowerShellExecutableCache.get().getMisses();
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Series {
+
+        private final PowerShellStartupStats.Key key;
+
+        private final long[] startup;
+
+        private final long[] duration;
+
+        private Series(PowerShellStartupStats.Series series) {
+            this.key = series.key;
+            this.startup = series.startup.getCounts();
+            this.duration = series.duration.getCounts();
+        }
+
+        @Exported
+        public String getNode() {
+            return key.node();
+        }
+
+        @Exported
+        public String getInstallation() {
+            return key.installation();
+        }
+
+        @Exported
+        public boolean isUseProfile() {
+            return key.useProfile();
+        }
+
+        @Exported
+        public long getCount() {
+            long count = 0;
+            for (long c : duration) {
+                count += c;
+            }
+            return count;
+        }
+
+        /** Time to first output, by bucket */
+        @Exported
+        public long[] getStartup() {
+            return startup.clone();
+        }
+
+        /** Total step duration, by bucket */
+        @Exported
+        public long[] getDuration() {
+            return duration.clone();
+        }
+
+        @Exported
+        public long getStartupP50() {
+            return PowerShellLatencyHistogram.percentile(startup, 50);
+        }
+
+        @Exported
+        public long getStartupP99() {
+            return PowerShellLatencyHistogram.percentile(startup, 99);
+        }
+
+        @Exported
+        public long getDurationP50() {
+            return PowerShellLatencyHistogram.percentile(duration, 50);
+        }
+
+        @Exported
+        public long getDurationP99() {
+            return PowerShellLatencyHistogram.percentile(duration, 99);
+        }
+    }
+}
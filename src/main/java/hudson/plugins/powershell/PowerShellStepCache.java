@@ -0,0 +1,234 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Skips a step whose inputs did not change since it last succeeded on the node, restoring its outputs instead.
+ * <p>
+ * The inputs and outputs are Ant patterns relative to the workspace. The key of a run is the SHA-256 of the
+ * contents of the inputs, the script, the resolved PowerShell executable and the {@link PowerShellFanOut} inputs and
+ * parallelism, computed on the node. The outputs of successful runs are kept as archives named after their key in
+ * {@value #DIRECTORY} below the node root, next to the {@link PowerShellResults results} of the run, which a skipped
+ * step hands over again. {@link PowerShellScriptCache.Sweeper} trims them down to
+ * {@link PowerShell.DescriptorImpl#getStepCacheSize()}.
+ * Environment variables are not part of the key, so steps depending on them must not be cached.
+ */
+public class PowerShellStepCache extends AbstractDescribableImpl<PowerShellStepCache> implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    static final String DIRECTORY = "powershell-step-cache";
+
+    /** A tar archive without entries is just its end marker, two blocks of zeros */
+    private static final int EMPTY_TAR_SIZE = 1024;
+
+    private final String inputs;
+
+    private final String outputs;
+
+    @DataBoundConstructor
+    public PowerShellStepCache(String inputs, String outputs) {
+        this.inputs = Util.fixEmptyAndTrim(inputs);
+        this.outputs = Util.fixEmptyAndTrim(outputs);
+    }
+
+    public String getInputs() {
+        return inputs;
+    }
+
+    public String getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * Computes the key of the step and restores its outputs into the workspace if they are in the cache, in a
+     * single call to the node.
+     *
+     * @param nodeRoot   root of the node running the step
+     * @param contents   the script
+     * @param executable the resolved PowerShell executable
+     * @param fanOut     the fan-out of the step, whose inputs are part of the key, {@code null} if none
+     */
+    Lookup lookup(FilePath ws, FilePath nodeRoot, String contents, String executable, @CheckForNull PowerShellFanOut fanOut)
+            throws IOException, InterruptedException {
+        String seed = PowerShellScriptCache.hash(contents) + '\0' + executable + '\0' + inputs + '\0' + outputs;
+        if (fanOut != null) {
+            seed += '\0' + String.join("\n", fanOut.getInputList()) + '\0' + fanOut.getParallelism();
+        }
+        return PowerShellChannelCalls.act(ws, new Restore(nodeRoot.child(DIRECTORY).getRemote(), seed, inputs));
+    }
+
+    /**
+     * Keeps the outputs and the results of a successful run in the cache of the node.
+     *
+     * @return the number of files kept
+     */
+    int store(FilePath ws, Lookup lookup, Map<String, String> results) throws IOException, InterruptedException {
+        return PowerShellChannelCalls.act(ws, new Store(lookup.directory(), lookup.key(), outputs, new LinkedHashMap<>(results)));
+    }
+
+    /**
+     * Key of a run, and whether its outputs were restored from the cache.
+     *
+     * @param results the results of the cached run, empty unless its outputs were restored
+     */
+    record Lookup(String directory, String key, boolean hit, Map<String, String> results) implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1;
+    }
+
+    static String computeKey(File ws, String seed, String inputs) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(seed.getBytes(StandardCharsets.UTF_8));
+            String[] files = inputs != null && ws.isDirectory()
+                    ? Util.createFileSet(ws, inputs).getDirectoryScanner().getIncludedFiles()
+                    : new String[0];
+            Arrays.sort(files);
+            byte[] buffer = new byte[64 * 1024];
+            for (String file : files) {
+                digest.update((byte) 0);
+                digest.update(file.replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                try (InputStream in = Files.newInputStream(new File(ws, file).toPath())) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+            return Util.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Restore extends MasterToSlaveFileCallable<Lookup> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final String directory;
+        private final String seed;
+        private final String inputs;
+
+        private Restore(String directory, String seed, String inputs) {
+            this.directory = directory;
+            this.seed = seed;
+            this.inputs = inputs;
+        }
+
+        @Override
+        public Lookup invoke(File ws, VirtualChannel channel) throws IOException, InterruptedException {
+            String key = computeKey(ws, seed, inputs);
+            File archive = new File(directory, key + ".tar.gz");
+            File results = new File(directory, key + ".json");
+            // the sweeper may have removed one without the other
+            if (!archive.isFile() || !results.isFile()) {
+                return new Lookup(directory, key, false, new LinkedHashMap<>());
+            }
+            new FilePath(archive).untar(new FilePath(ws), FilePath.TarCompression.GZIP);
+            Map<String, String> restored = new LinkedHashMap<>();
+            JSONObject object = JSONObject.fromObject(Files.readString(results.toPath(), StandardCharsets.UTF_8));
+            for (Object name : object.keySet()) {
+                restored.put(name.toString(), object.getString(name.toString()));
+            }
+            FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+            Files.setLastModifiedTime(archive.toPath(), now);
+            Files.setLastModifiedTime(results.toPath(), now);
+            return new Lookup(directory, key, true, restored);
+        }
+    }
+
+    private static final class Store extends MasterToSlaveFileCallable<Integer> {
+
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        private final String directory;
+        private final String key;
+        private final String outputs;
+        private final LinkedHashMap<String, String> results;
+
+        private Store(String directory, String key, String outputs, LinkedHashMap<String, String> results) {
+            this.directory = directory;
+            this.key = key;
+            this.outputs = outputs;
+            this.results = results;
+        }
+
+        @Override
+        public Integer invoke(File ws, VirtualChannel channel) throws IOException, InterruptedException {
+            Path archive = new File(directory, key + ".tar.gz").toPath();
+            Files.createDirectories(archive.getParent());
+            Path temp = Files.createTempFile(archive.getParent(), "jenkins", ".tmp");
+            try {
+                int count = 0;
+                if (outputs != null) {
+                    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+                        count = new FilePath(ws).tar(out, outputs);
+                    }
+                } else {
+                    // nothing to restore, the run is only recorded as done
+                    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+                        out.write(new byte[EMPTY_TAR_SIZE]);
+                    }
+                }
+                move(temp, archive);
+                // written last, so that a run is only a hit once both are in place
+                Files.writeString(temp, JSONObject.fromObject(results).toString(), StandardCharsets.UTF_8);
+                move(temp, archive.resolveSibling(key + ".json"));
+                return count;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        private static void move(Path source, Path target) throws IOException {
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<PowerShellStepCache> {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Step cache";
+        }
+    }
+}
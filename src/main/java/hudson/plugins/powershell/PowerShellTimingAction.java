@@ -0,0 +1,122 @@
+package hudson.plugins.powershell;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Phase timings of the PowerShell steps of a build, shown on the build page and exported through the REST API.
+ */
+@ExportedBean
+public class PowerShellTimingAction implements RunAction2 {
+
+    private final List<Step> steps = new CopyOnWriteArrayList<>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * Adds the timings of a step to the action of {@code run}, creating it if needed.
+     */
+    static void record(Run<?, ?> run, PowerShellTimings timings) {
+        PowerShellTimingAction action;
+        synchronized (run) {
+            action = run.getAction(PowerShellTimingAction.class);
+            if (action == null) {
+                action = new PowerShellTimingAction();
+                run.addAction(action);
+            }
+            action.steps.add(new Step(action.steps.size() + 1, timings));
+        }
+    }
+
+    @Exported
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "PowerShell timings";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Step {
+
+        private final int number;
+
+        private final Map<String, Long> phases;
+
+        Step(int number, PowerShellTimings timings) {
+            this.number = number;
+            this.phases = new LinkedHashMap<>(timings.getPhases());
+        }
+
+        /** Position of the step among the PowerShell steps of the build, starting at 1 */
+        @Exported
+        public int getNumber() {
+            return number;
+        }
+
+        @Exported
+        public List<Phase> getPhases() {
+            List<Phase> result = new ArrayList<>();
+            phases.forEach((name, nanos) -> result.add(new Phase(name, nanos)));
+            return result;
+        }
+    }
+
+    @ExportedBean(defaultVisibility = 3)
+    public static final class Phase {
+
+        private final String name;
+
+        private final long nanos;
+
+        Phase(String name, long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+    }
+}
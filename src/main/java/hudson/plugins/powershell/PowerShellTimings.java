@@ -0,0 +1,70 @@
+package hudson.plugins.powershell;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase of a PowerShell step, measured with {@link System#nanoTime()}.
+ * <p>
+ * Phases measured on the agent travel back to the controller along with the exit code and are merged there.
+ */
+final class PowerShellTimings implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    /** Looking up the installation and translating it for the node */
+    static final String RESOLUTION = "resolution";
+    /** Tool installers run by {@link PowerShellInstallation#forNode}, part of {@link #RESOLUTION} */
+    static final String INSTALLATION = "installation";
+    /** Writing the script on the agent */
+    static final String STAGING = "staging";
+    /** First use of a {@link PowerShellModuleCache} on the node */
+    static final String WARMUP = "warmup";
+    /** From launching PowerShell until its first output */
+    static final String STARTUP = "startup";
+    /** From the first output until PowerShell exited */
+    static final String SCRIPT = "script";
+    /** Removing the script and other temporary files */
+    static final String CLEANUP = "cleanup";
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    void record(String phase, long nanos) {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Records the time elapsed since {@code start} and returns the current time, to be used as the start of the
+     * next phase.
+     */
+    long recordSince(String phase, long start) {
+        long now = System.nanoTime();
+        record(phase, now - start);
+        return now;
+    }
+
+    void addAll(PowerShellTimings other) {
+        other.phases.forEach(this::record);
+    }
+
+    Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(phases);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(phase.getKey()).append(' ').append(TimeUnit.NANOSECONDS.toMillis(phase.getValue())).append(" ms");
+        }
+        return sb.toString();
+    }
+}
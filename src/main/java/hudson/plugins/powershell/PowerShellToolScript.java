@@ -0,0 +1,117 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.durabletask.Controller;
+import org.jenkinsci.plugins.durabletask.DurableTask;
+import org.jenkinsci.plugins.durabletask.DurableTaskDescriptor;
+import org.jenkinsci.plugins.durabletask.PowerShellScript;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Durable task running a PowerShell script with the executable of a {@link PowerShellInstallation}.
+ * <p>
+ * The process is handed over to a {@link PowerShellScript}, whose controller follows it from files on the node. A
+ * Pipeline launches durable tasks on its CPS VM thread, which must not block, so {@link PowerShellScriptStep}
+ * resolves the installation, through the same cache and installers as the build step, and probes its version in the
+ * background, then gives them to the task with {@link #setResolved}. Otherwise they are looked up when the task is
+ * launched, which may run tool installers.
+ */
+public final class PowerShellToolScript extends DurableTask {
+
+    private final String script;
+
+    private String installation;
+
+    private transient boolean captureOutput;
+
+    private transient Charset charset;
+
+    private transient String executable;
+
+    private transient PowerShellVersion version;
+
+    @DataBoundConstructor
+    public PowerShellToolScript(String script) {
+        this.script = Util.fixNull(script);
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    @CheckForNull
+    public String getInstallation() {
+        return installation;
+    }
+
+    @DataBoundSetter
+    public void setInstallation(@CheckForNull String installation) {
+        this.installation = Util.fixEmptyAndTrim(installation);
+    }
+
+    /**
+     * Sets the executable the task runs, already resolved for the node of the workspace, and its version.
+     */
+    void setResolved(@NonNull String executable, @CheckForNull PowerShellVersion version) {
+        this.executable = executable;
+        this.version = version;
+    }
+
+    @Override
+    public void captureOutput() {
+        captureOutput = true;
+    }
+
+    @Override
+    public void charset(@NonNull Charset cs) {
+        charset = cs;
+    }
+
+    @Override
+    public void defaultCharset() {
+        charset = null;
+    }
+
+    @Override
+    public Controller launch(EnvVars env, FilePath workspace, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        final var executable = this.executable != null
+                ? this.executable : PowerShell.resolveExecutable(installation, workspace, listener);
+        final var version = this.executable != null
+                ? this.version : PowerShellVersion.of(workspace, executable, launcher, env);
+        if (version != null) {
+            version.buildEnvironment(env);
+        }
+        PowerShellScript task = new PowerShellScript(script);
+        task.setPowershellBinary(executable);
+        if (captureOutput) {
+            task.captureOutput();
+        }
+        if (charset != null) {
+            task.charset(charset);
+        } else {
+            task.defaultCharset();
+        }
+        return task.launch(env, workspace, launcher, listener);
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends DurableTaskDescriptor {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "PowerShell script with installation";
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package hudson.plugins.powershell;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import hudson.util.VersionNumber;
+import jenkins.util.SystemProperties;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Edition, version and architecture of a PowerShell executable on a node, as reported by {@code $PSVersionTable}.
+ * <p>
+ * Probing launches PowerShell through the launcher and with the environment of the step, so it is done once per
+ * executable and kept per channel: every following step on the node gets the result without launching anything. A
+ * reconnection opens a new channel, which is probed again, and so does reconfiguring the installations. An executable
+ * that did not report its version is probed again after {@link #NEGATIVE_TTL}. Build wrappers decorating the
+ * launcher may run another PowerShell than the one of the node, so what is probed through them is not kept.
+ */
+final class PowerShellVersion implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    private static final Logger LOGGER = Logger.getLogger(PowerShellVersion.class.getName());
+
+    static final String EDITION_VARIABLE = "POWERSHELL_EDITION";
+    static final String VERSION_VARIABLE = "POWERSHELL_VERSION";
+    static final String ARCHITECTURE_VARIABLE = "POWERSHELL_ARCHITECTURE";
+
+    /** Edition of PowerShell 6 and later */
+    static final String CORE = "Core";
+    /** Edition of Windows PowerShell, which is also the one of versions predating {@code PSEdition} */
+    static final String DESKTOP = "Desktop";
+
+    private static final String MARKER = "PSVERSION|";
+
+    /**
+     * Prints a single line, after whatever a profile may print. The script avoids double quotes, which would need
+     * escaping on a Windows command line.
+     */
+    private static final String SCRIPT = "$a = try { [System.Runtime.InteropServices.RuntimeInformation]::ProcessArchitecture }"
+            + " catch { $env:PROCESSOR_ARCHITECTURE }; '" + MARKER + "{0}|{1}|{2}' -f $PSVersionTable.PSEdition,"
+            + " $PSVersionTable.PSVersion, $a";
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+
+    /** Non-final for tests */
+    static long NEGATIVE_TTL = TimeUnit.MINUTES.toMillis(
+            SystemProperties.getLong(PowerShellVersion.class.getName() + ".negativeTtlMinutes", 5L));
+
+    /**
+     * Results per channel and executable. Executables that could not be probed are only kept for a while, as they
+     * may only be missing until an administrator puts them in place.
+     */
+    private static final Map<VirtualChannel, Map<String, Entry>> VERSIONS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final String edition;
+    private final String version;
+    private final String architecture;
+
+    PowerShellVersion(String edition, String version, String architecture) {
+        this.edition = edition;
+        this.version = version;
+        this.architecture = architecture;
+    }
+
+    /**
+     * Probes {@code executable} on the node {@code path} belongs to, unless it has already been.
+     *
+     * @param path directory the probe runs in
+     * @param env environment of the step, which decides where a bare executable name is looked up
+     * @return {@code null} if the executable could not be launched or did not report its version
+     */
+    @CheckForNull
+    static PowerShellVersion of(@NonNull FilePath path, @NonNull String executable, @NonNull Launcher launcher,
+                                @NonNull EnvVars env) throws IOException, InterruptedException {
+        if (launcher instanceof Launcher.DecoratedLauncher) {
+            return probe(path, executable, launcher, env);
+        }
+        final var versions = VERSIONS.computeIfAbsent(path.getChannel(), channel -> new ConcurrentHashMap<>());
+        Entry entry = new Entry();
+        Entry existing;
+        while ((existing = versions.putIfAbsent(executable, entry)) != null) {
+            if (!existing.isExpired()) {
+                return join(existing.future);
+            }
+            versions.remove(executable, existing);
+        }
+        try {
+            PowerShellVersion version = probe(path, executable, launcher, env);
+            if (version == null) {
+                entry.expires = System.currentTimeMillis() + NEGATIVE_TTL;
+            }
+            entry.future.complete(version);
+            return version;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            versions.remove(executable, entry);
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the version of {@code executable} if it has already been probed on the node {@code path} belongs to.
+     * Otherwise starts probing it in the background, for the following steps, and returns {@code null}.
+     *
+     * @see #of
+     */
+    @CheckForNull
+    static PowerShellVersion ifProbed(@NonNull FilePath path, @NonNull String executable, @NonNull Launcher launcher,
+                                      @NonNull EnvVars env) {
+        final var versions = VERSIONS.get(path.getChannel());
+        final var entry = versions != null ? versions.get(executable) : null;
+        if (entry != null && !entry.isExpired()) {
+            final var future = entry.future;
+            return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+        }
+        if (!(launcher instanceof Launcher.DecoratedLauncher)) {
+            final var copy = new EnvVars(env);
+            Computer.threadPoolForRemoting.submit(() -> {
+                try {
+                    of(path, executable, launcher, copy);
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Failed to probe the version of " + executable, e);
+                }
+            });
+        }
+        return null;
+    }
+
+    static void invalidateAll() {
+        VERSIONS.clear();
+    }
+
+    private static PowerShellVersion join(CompletableFuture<PowerShellVersion> entry) throws IOException, InterruptedException {
+        try {
+            return entry.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Probing the PowerShell version failed", e.getCause());
+        }
+    }
+
+    @CheckForNull
+    private static PowerShellVersion probe(FilePath path, String executable, Launcher launcher, EnvVars env)
+            throws IOException, InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Proc proc;
+        try {
+            proc = launcher.launch().cmds(executable, "-NoLogo", "-NoProfile", "-NonInteractive", "-Command", SCRIPT)
+                    .envs(env).pwd(path).stdout(out).quiet(true).start();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to launch " + executable + " to probe its version", e);
+            return null;
+        }
+        // kills PowerShell if it hangs, e.g. on a prompt
+        proc.joinWithTimeout(TIMEOUT, TimeUnit.MILLISECONDS, TaskListener.NULL);
+        PowerShellVersion version = parseOutput(out.toString(Charset.defaultCharset()));
+        if (version == null) {
+            LOGGER.log(Level.FINE, "{0} did not report its version", executable);
+        }
+        return version;
+    }
+
+    @CheckForNull
+    private static PowerShellVersion parseOutput(String output) {
+        for (String line : output.split("\\R")) {
+            PowerShellVersion version = parse(line);
+            if (version != null) {
+                return version;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the line printed by the probe script, {@code null} if there is none.
+     */
+    @CheckForNull
+    static PowerShellVersion parse(String line) {
+        int start = line.indexOf(MARKER);
+        if (start < 0) {
+            return null;
+        }
+        String[] fields = line.substring(start + MARKER.length()).trim().split("\\|", -1);
+        if (fields.length != 3 || fields[1].isBlank()) {
+            return null;
+        }
+        String edition = fields[0].isBlank() ? DESKTOP : fields[0].trim();
+        String architecture = fields[2].trim().toLowerCase(Locale.ROOT);
+        return new PowerShellVersion(edition, fields[1].trim(), "amd64".equals(architecture) ? "x64" : architecture);
+    }
+
+    String getEdition() {
+        return edition;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    String getArchitecture() {
+        return architecture;
+    }
+
+    /**
+     * Whether this is at least {@code minimumVersion}, {@code null} standing for any version, and of
+     * {@code edition}, {@code null} standing for any edition.
+     */
+    boolean satisfies(@CheckForNull String minimumVersion, @CheckForNull String edition) {
+        if (edition != null && !edition.equalsIgnoreCase(this.edition)) {
+            return false;
+        }
+        final var minimum = PowerShellInstallationIndex.parseVersion(minimumVersion);
+        return minimum == null || !new VersionNumber(version).isOlderThan(minimum);
+    }
+
+    /**
+     * Passes the version on to the script, leaving alone the variables the build already set.
+     */
+    void buildEnvironment(EnvVars env) {
+        env.putIfAbsent(EDITION_VARIABLE, edition);
+        env.putIfAbsent(VERSION_VARIABLE, version);
+        if (!architecture.isEmpty()) {
+            env.putIfAbsent(ARCHITECTURE_VARIABLE, architecture);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PowerShell " + version + " " + edition + (architecture.isEmpty() ? "" : " (" + architecture + ")");
+    }
+
+    /**
+     * Launches {@code executable} on this node to probe its version, outside of any build.
+     *
+     * @return {@code null} if the executable could not be launched or did not report its version
+     */
+    @CheckForNull
+    static PowerShellVersion probeLocally(String executable) throws IOException {
+        Process process;
+        try {
+            process = new ProcessBuilder(executable, "-NoLogo", "-NoProfile", "-NonInteractive", "-Command", SCRIPT)
+                    .redirectErrorStream(true)
+                    .start();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to launch " + executable + " to probe its version", e);
+            return null;
+        }
+        try {
+            process.getOutputStream().close();
+            // the output is a single line, which fits in the pipe until PowerShell exits
+            if (!process.waitFor(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOGGER.log(Level.WARNING, "{0} did not report its version in time", executable);
+                return null;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                    Charset.defaultCharset()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    PowerShellVersion version = parse(line);
+                    if (version != null) {
+                        return version;
+                    }
+                }
+            }
+            LOGGER.log(Level.FINE, "{0} did not report its version", executable);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while probing " + executable).initCause(e);
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Probe of an executable, completed with {@code null} if it did not report its version, in which case it expires.
+     */
+    private static final class Entry {
+
+        private final CompletableFuture<PowerShellVersion> future = new CompletableFuture<>();
+
+        private volatile long expires = Long.MAX_VALUE;
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expires;
+        }
+    }
+
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOffline(@NonNull Computer c, @CheckForNull OfflineCause cause) {
+            VirtualChannel channel = c.getChannel();
+            if (channel != null) {
+                VERSIONS.remove(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package hudson.plugins.powershell;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Remembers when the first byte went through, as a cheap measure of interpreter startup.
+ */
+final class TimedOutputStream extends FilterOutputStream {
+
+    private volatile long firstOutput;
+
+    TimedOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * {@link System#nanoTime()} of the first write, {@code 0} if nothing has been written yet.
+     */
+    long getFirstOutput() {
+        return firstOutput;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mark();
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
+            mark();
+        }
+        out.write(b, off, len);
+    }
+
+    private void mark() {
+        if (firstOutput == 0) {
+            firstOutput = System.nanoTime();
+        }
+    }
+}
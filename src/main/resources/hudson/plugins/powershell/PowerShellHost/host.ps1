@@ -0,0 +1,119 @@
+# Pooled PowerShell host started by the Jenkins PowerShell plugin.
+#
+# Reads one request per line from standard input. A request is a space separated list of a marker, a mode, the
+# base64 encoded working directory, the base64 encoded script path and any number of base64 encoded NAME=VALUE
+# environment variables. Once the request has completed, the marker is written to standard output followed by the
+# exit code of the script.
+#
+# In "run" mode, the script runs in a fresh runspace. In "session" mode, it is dot-sourced into the runspace of the
+# session, created by the first such request, so that modules and variables stay available to the following ones.
+# The session lasts until an "end" request or a "run" request.
+
+$ErrorActionPreference = 'Continue'
+
+$utf8 = [System.Text.Encoding]::UTF8
+
+function Get-DecodedValue([string] $value) {
+    return $utf8.GetString([System.Convert]::FromBase64String($value))
+}
+
+$baseline = @{}
+foreach ($item in Get-ChildItem env:) {
+    $baseline[$item.Name] = $item.Value
+}
+
+$session = $null
+
+$profiles = @()
+if ($UseProfile) {
+    $profiles = @($PROFILE.AllUsersAllHosts, $PROFILE.AllUsersCurrentHost, $PROFILE.CurrentUserAllHosts, $PROFILE.CurrentUserCurrentHost) |
+            Where-Object { $_ -and (Test-Path -LiteralPath $_) }
+}
+
+while ($true) {
+    $request = [Console]::In.ReadLine()
+    if ($null -eq $request) {
+        break
+    }
+    $fields = $request.Split(' ')
+    $marker = $fields[0]
+    $mode = $fields[1]
+    $cwd = Get-DecodedValue $fields[2]
+    $script = Get-DecodedValue $fields[3]
+
+    if ($mode -ne 'session' -and $null -ne $session) {
+        $session.Dispose()
+        $session = $null
+    }
+    if ($mode -eq 'end') {
+        [Console]::Out.WriteLine("$marker 0")
+        [Console]::Out.Flush()
+        continue
+    }
+
+    foreach ($name in @(Get-ChildItem env: | ForEach-Object Name)) {
+        if (-not $baseline.ContainsKey($name)) {
+            Remove-Item -LiteralPath "env:$name"
+        }
+    }
+    foreach ($name in $baseline.Keys) {
+        Set-Item -LiteralPath "env:$name" -Value $baseline[$name]
+    }
+    for ($i = 4; $i -lt $fields.Length; $i++) {
+        $pair = Get-DecodedValue $fields[$i]
+        $separator = $pair.IndexOf('=')
+        Set-Item -LiteralPath ("env:" + $pair.Substring(0, $separator)) -Value $pair.Substring($separator + 1)
+    }
+    [System.Environment]::CurrentDirectory = $cwd
+
+    $exitCode = 0
+    $runspace = $session
+    $shell = [powershell]::Create()
+    try {
+        if ($null -eq $runspace) {
+            $runspace = [runspacefactory]::CreateRunspace($Host)
+            $runspace.Open()
+            if ($mode -eq 'session') {
+                $session = $runspace
+            }
+            $shell.Runspace = $runspace
+            [void] $shell.AddScript('param($profiles) foreach ($p in $profiles) { . $p }').AddParameter('profiles', $profiles)
+            [void] $shell.Invoke()
+            $shell.Commands.Clear()
+        }
+        $shell.Runspace = $runspace
+        # every step starts like in a new process, whatever the previous steps of the session did
+        $runspace.SessionStateProxy.SetVariable('LASTEXITCODE', 0)
+        $runspace.SessionStateProxy.SetVariable('ErrorActionPreference', 'Continue')
+        if ($mode -eq 'session') {
+            [void] $shell.AddScript('param($cwd, $script) Set-Location -LiteralPath $cwd; . $script *>&1 | Out-Default')
+        } else {
+            [void] $shell.AddScript('param($cwd, $script) Set-Location -LiteralPath $cwd; & $script *>&1 | Out-Default')
+        }
+        [void] $shell.AddParameter('cwd', $cwd).AddParameter('script', $script)
+        [void] $shell.Invoke()
+        $lastExitCode = $runspace.SessionStateProxy.GetVariable('LASTEXITCODE')
+        if ($null -ne $lastExitCode) {
+            $exitCode = [int] $lastExitCode
+        }
+    } catch {
+        $exitCode = 1
+        $cause = $_.Exception.InnerException
+        if ($cause -is [System.Management.Automation.IContainsErrorRecord]) {
+            $cause.ErrorRecord | Out-String | Write-Host
+        } elseif ($null -ne $cause) {
+            Write-Host $cause.Message
+        } else {
+            $_ | Out-String | Write-Host
+        }
+    } finally {
+        $shell.Dispose()
+        if ($null -ne $runspace -and -not [object]::ReferenceEquals($runspace, $session)) {
+            $runspace.Dispose()
+        }
+    }
+
+    [Console]::Out.Flush()
+    [Console]::Out.WriteLine("$marker $exitCode")
+    [Console]::Out.Flush()
+}
@@ -0,0 +1,100 @@
+package hudson.plugins.powershell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CappedOutputStreamTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testCopiesOutputWithinBudget() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        File spill = directory.resolve("output.log.gz").toFile();
+        CappedOutputStream capped = new CappedOutputStream(out, 100, spill);
+        String text = "a\n".repeat(50);
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            capped.write(b);
+        }
+
+        assertNull(capped.finish());
+        assertEquals(text, out.toString(StandardCharsets.UTF_8));
+        assertFalse(spill.exists());
+    }
+
+    @Test
+    void testKeepsHeadAndTailOfLongOutput() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        File spill = directory.resolve("output.log.gz").toFile();
+        CappedOutputStream capped = new CappedOutputStream(out, 1000, spill);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += 333) {
+            capped.write(bytes, i, Math.min(333, bytes.length - i));
+        }
+
+        assertNotNull(capped.finish());
+        String console = out.toString(StandardCharsets.UTF_8);
+        assertTrue(console.startsWith("line 0\nline 1\n"), console);
+        assertTrue(console.endsWith("line 9998\nline 9999\n"), console);
+        assertTrue(console.contains("bytes of output left out" + System.lineSeparator() + "line "), console);
+        assertTrue(console.length() < 1200, console);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(spill.toPath()))) {
+            assertEquals(text.toString(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testSpillsOutputBeforeFilter() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        File spill = directory.resolve("output.log.gz").toFile();
+        CappedOutputStream capped = new CappedOutputStream(out, 10, spill);
+        PowerShellOutputFilter.FilteredOutputStream filtered = new PowerShellOutputFilter(false, true, 0).decorate(capped);
+        String text = "\u001b[31mred\u001b[0m\n".repeat(10);
+
+        capped.spilling(filtered).write(text.getBytes(StandardCharsets.UTF_8));
+        filtered.finish();
+
+        assertNotNull(capped.finish());
+        assertFalse(out.toString(StandardCharsets.UTF_8).contains("\u001b"));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(spill.toPath()))) {
+            assertEquals(text, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testDiscardDeletesSpillUnlessFinished() throws IOException {
+        File spill = directory.resolve("output.log.gz").toFile();
+        CappedOutputStream capped = new CappedOutputStream(new ByteArrayOutputStream(), 10, spill);
+        capped.write("more than ten bytes".getBytes(StandardCharsets.UTF_8));
+        assertTrue(spill.exists());
+
+        capped.discard();
+        assertFalse(spill.exists());
+
+        CappedOutputStream finished = new CappedOutputStream(new ByteArrayOutputStream(), 10, spill);
+        finished.write("more than ten bytes".getBytes(StandardCharsets.UTF_8));
+        assertNotNull(finished.finish());
+        finished.discard();
+        assertTrue(spill.exists());
+    }
+}
@@ -0,0 +1,139 @@
+package hudson.plugins.powershell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import hudson.tools.InstallSourceProperty;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@WithJenkins
+class PowerShellArchiveInstallerTest {
+
+    @TempDir
+    private File tmp;
+
+    private File archive;
+
+    private String sha256;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        File content = new File(tmp, "content");
+        assertTrue(content.mkdir());
+        StubPowerShell.write(content);
+        archive = new File(tmp, "pwsh.tar.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(archive.toPath()))) {
+            new FilePath(content).tar(out, "**");
+        }
+        sha256 = Util.toHexString(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(archive.toPath())));
+    }
+
+    @Test
+    void testInstallsOncePerNode(JenkinsRule r) throws Exception {
+        install(r, sha256, true);
+        DumbSlave agent = r.createOnlineSlave();
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.setAssignedNode(agent);
+        PowerShell step = new PowerShell("Write-Output $env:BUILD_NUMBER", true, false, null);
+        step.setInstallation("archive");
+        project1.getBuildersList().add(step);
+
+        FreeStyleBuild build1 = r.buildAndAssertSuccess(project1);
+        r.assertLogContains("Installing PowerShell from", build1);
+        FilePath[] markers = agent.getRootPath().list("tools/**/7.4.0/" + PowerShellArchiveInstaller.MARKER);
+        assertEquals(1, markers.length);
+        assertEquals(sha256, markers[0].readToString());
+        File cache = new File(r.jenkins.getRootDir(), "caches/powershell-archives/" + sha256 + ".tar.gz");
+        assertTrue(cache.isFile());
+
+        // resolved again, e.g. after the agent reconnected, without installing twice
+        PowerShellExecutableCache.get().invalidateAll();
+        FreeStyleBuild build2 = r.buildAndAssertSuccess(project1);
+        r.assertLogNotContains("Installing PowerShell from", build2);
+        r.assertLogContains("2", build2);
+    }
+
+    @Test
+    void testConcurrentInstallationsShareTheDownload(JenkinsRule r) throws Exception {
+        PowerShellInstallation installation = install(r, sha256, true);
+        PowerShellArchiveInstaller installer = new PowerShellArchiveInstaller(null, archive.toURI().toString(), sha256,
+                "7.4.0", null, true);
+        List<Node> nodes = List.of(r.jenkins, r.createOnlineSlave(), r.createOnlineSlave());
+
+        ExecutorService executor = Executors.newFixedThreadPool(nodes.size());
+        try {
+            List<Future<FilePath>> homes = new ArrayList<>();
+            for (Node node : nodes) {
+                homes.add(executor.submit(() -> installer.performInstallation(installation, node, TaskListener.NULL)));
+            }
+            for (Future<FilePath> home : homes) {
+                assertTrue(home.get().child("pwsh").exists());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        File cache = new File(r.jenkins.getRootDir(), "caches/powershell-archives");
+        assertEquals(List.of(sha256 + ".tar.gz"), List.of(cache.list()));
+        assertEquals(0, PowerShellArchiveInstaller.KeyedLock.size());
+    }
+
+    @Test
+    void testAgentDownloadsItself(JenkinsRule r) throws Exception {
+        PowerShellInstallation installation = install(r, sha256, false);
+        FilePath home = new PowerShellArchiveInstaller(null, archive.toURI().toString(), sha256, null, null, false)
+                .performInstallation(installation, r.jenkins, TaskListener.NULL);
+
+        assertTrue(home.child("pwsh").exists());
+        assertTrue(home.getName().startsWith(sha256.substring(0, 12)));
+        assertFalse(new File(r.jenkins.getRootDir(), "caches/powershell-archives").exists());
+    }
+
+    @Test
+    void testChecksumMismatchFails(JenkinsRule r) throws Exception {
+        String wrong = sha256.replace(sha256.charAt(0), sha256.charAt(0) == '0' ? '1' : '0');
+        PowerShellInstallation installation = install(r, wrong, false);
+        PowerShellArchiveInstaller installer = new PowerShellArchiveInstaller(null, archive.toURI().toString(), wrong, "7.4.0", null, false);
+
+        IOException e = assertThrows(IOException.class, () -> installer.performInstallation(installation, r.jenkins, TaskListener.NULL));
+        assertTrue(e.getMessage().contains("Checksum mismatch"), e.getMessage());
+        assertEquals(0, r.jenkins.getRootPath().list("tools/**/7.4.0/**").length);
+    }
+
+    private PowerShellInstallation install(JenkinsRule r, String checksum, boolean cacheOnController) throws IOException {
+        PowerShellArchiveInstaller installer = new PowerShellArchiveInstaller(null, archive.toURI().toString(), checksum,
+                "7.4.0", null, cacheOnController);
+        PowerShellInstallation installation = new PowerShellInstallation("archive", null, "pwsh",
+                List.of(new InstallSourceProperty(List.of(installer))));
+        r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class).setInstallations(installation);
+        return installation;
+    }
+}
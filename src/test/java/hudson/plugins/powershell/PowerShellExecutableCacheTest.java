@@ -0,0 +1,97 @@
+package hudson.plugins.powershell;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.model.Node;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@WithJenkins
+class PowerShellExecutableCacheTest {
+
+    @Test
+    void testResolvesOncePerNodeAndInstallation(JenkinsRule r) throws Exception {
+        PowerShellExecutableCache cache = PowerShellExecutableCache.get();
+        cache.invalidateAll();
+        Node agent = r.createOnlineSlave();
+        AtomicInteger resolutions = new AtomicInteger();
+        long misses = cache.getMisses();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("pwsh", cache.getExecutable(agent, "installation1", () -> {
+                resolutions.incrementAndGet();
+                return "pwsh";
+            }));
+        }
+        assertEquals("pwsh", cache.getExecutable(r.jenkins, "installation1", () -> {
+            resolutions.incrementAndGet();
+            return "pwsh";
+        }));
+
+        assertEquals(2, resolutions.get());
+        assertEquals(misses + 2, cache.getMisses());
+    }
+
+    @Test
+    void testInvalidatedWhenInstallationsChange(JenkinsRule r) throws Exception {
+        PowerShellExecutableCache cache = PowerShellExecutableCache.get();
+        AtomicInteger resolutions = new AtomicInteger();
+
+        cache.getExecutable(r.jenkins, "installation1", () -> "pwsh" + resolutions.incrementAndGet());
+        r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class)
+                .setInstallations(new PowerShellInstallation("installation1", "home1", "pwsh1", Collections.emptyList()));
+
+        assertEquals("pwsh2", cache.getExecutable(r.jenkins, "installation1", () -> "pwsh" + resolutions.incrementAndGet()));
+    }
+
+    @Test
+    void testWaiterResolvesAgainWhenFirstResolverIsInterrupted(JenkinsRule r) throws Exception {
+        PowerShellExecutableCache cache = PowerShellExecutableCache.get();
+        cache.invalidateAll();
+        CountDownLatch resolving = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> cache.getExecutable(r.jenkins, "installation1", () -> {
+                resolving.countDown();
+                Thread.sleep(Long.MAX_VALUE);
+                return "pwsh1";
+            }));
+            resolving.await();
+            long hits = cache.getHits();
+            Future<String> second = executor.submit(() -> cache.getExecutable(r.jenkins, "installation1", () -> "pwsh2"));
+            while (cache.getHits() == hits) {
+                Thread.sleep(10);
+            }
+
+            first.cancel(true);
+
+            assertEquals("pwsh2", second.get(30, TimeUnit.SECONDS));
+            assertEquals("pwsh2", cache.getExecutable(r.jenkins, "installation1", () -> "pwsh3"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFailureIsNotCached(JenkinsRule r) throws Exception {
+        PowerShellExecutableCache cache = PowerShellExecutableCache.get();
+        cache.invalidateAll();
+
+        assertThrows(IOException.class, () -> cache.getExecutable(r.jenkins, "installation1", () -> {
+            throw new IOException("no installer");
+        }));
+
+        assertEquals("pwsh", cache.getExecutable(r.jenkins, "installation1", () -> "pwsh"));
+    }
+}
@@ -0,0 +1,59 @@
+package hudson.plugins.powershell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.util.StreamTaskListener;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PowerShellFanOutTest {
+
+    @Test
+    void testSplitsInputsByLine() {
+        assertEquals(List.of("server1", "server 2"), new PowerShellFanOut(" server1\r\n\n server 2 \n", 2).getInputList());
+        assertEquals(1, new PowerShellFanOut("server1", 0).getParallelism());
+    }
+
+    @Test
+    void testCombinesExitCodes() {
+        assertEquals(0, PowerShellFanOut.combine(new Integer[] {0, 0, null}, 3));
+        assertEquals(3, PowerShellFanOut.combine(new Integer[] {0, 3, 0}, 3));
+        assertEquals(1, PowerShellFanOut.combine(new Integer[] {3, 1, 2}, 3));
+        assertEquals(3, PowerShellFanOut.combine(new Integer[] {0, 3}, null));
+    }
+
+    @Test
+    void testFailureCancelsRemainingRuns(@TempDir File workingDirectory) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        List<String> commandLine = List.of("/bin/sh", "-c",
+                "echo started; if [ \"$" + PowerShellFanOut.INPUT_VARIABLE + "\" = fail ]; then exit 2; fi; sleep 60");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        StreamTaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+
+        long start = System.nanoTime();
+        int exitCode = new PowerShellFanOut("fail\nslow1\nslow2\nslow3\n", 2).run(new Launcher.LocalLauncher(listener),
+                commandLine, new boolean[commandLine.size()], Map.of(), new FilePath(workingDirectory), out, true,
+                null, listener);
+
+        assertEquals(2, exitCode);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30), "the slow runs were not killed");
+        String output = out.toString(StandardCharsets.UTF_8);
+        assertFalse(output.contains("[slow2]") || output.contains("[slow3]"), output);
+        assertTrue(log.toString(StandardCharsets.UTF_8).contains("Run for fail failed with exit code 2"),
+                log.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,106 @@
+package hudson.plugins.powershell;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.cli.CLICommandInvoker;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@WithJenkins
+class PowerShellHealthCheckTest {
+
+    @Test
+    void testChecksEveryInstallationOnEveryNode(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        PowerShellInstallation.DescriptorImpl descriptor = r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class);
+        descriptor.setInstallations(descriptor.getInstallation(StubPowerShell.INSTALLATION),
+                new PowerShellInstallation("broken", "/nonexistent", "pwsh", Collections.emptyList()));
+        Node agent = r.createOnlineSlave();
+
+        PowerShellHealthCheck healthCheck = PowerShellHealthCheck.get();
+        for (PowerShellHealthCheck.Check check : healthCheck.checkAll(true)) {
+            check.get();
+        }
+
+        List<PowerShellHealthCheck.Result> results = healthCheck.getResults().stream()
+                .filter(result -> result.node().equals(agent.getNodeName()) || result.node().equals(PowerShellStartupStats.BUILT_IN))
+                .toList();
+        assertEquals(4, results.size(), results.toString());
+        for (PowerShellHealthCheck.Result result : results) {
+            if (result.installation().equals(StubPowerShell.INSTALLATION)) {
+                assertEquals(PowerShellHealthCheck.Status.OK, result.status(), result.toString());
+                assertEquals("PowerShell 7.4.0 Core (x64)", result.version());
+                assertTrue(result.startupMillis() >= 0);
+            } else {
+                assertEquals(PowerShellHealthCheck.Status.FAILED, result.status(), result.toString());
+                assertEquals("/nonexistent/pwsh", result.executable());
+            }
+        }
+        // fresh results are not checked again
+        assertTrue(healthCheck.checkAll(false).isEmpty());
+
+        CLICommandInvoker.Result cli = new CLICommandInvoker(r, "powershell-health-check").invoke();
+        assertEquals(1, cli.returnCode());
+        assertTrue(cli.stdout().contains("broken"), cli.stdout());
+    }
+
+    @Test
+    void testHangingInstallerTimesOut(JenkinsRule r) throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class).setInstallations(
+                new PowerShellInstallation("hanging", null, "pwsh",
+                        List.of(new InstallSourceProperty(List.of(new HangingInstaller(release))))));
+        long timeout = PowerShellHealthCheck.TIMEOUT;
+        PowerShellHealthCheck.TIMEOUT = 1000;
+        try {
+            CLICommandInvoker.Result cli = new CLICommandInvoker(r, "powershell-health-check").withArgs("--force").invoke();
+
+            assertEquals(1, cli.returnCode());
+            assertTrue(cli.stdout().contains("hanging\tTIMED_OUT"), cli.stdout());
+        } finally {
+            PowerShellHealthCheck.TIMEOUT = timeout;
+            release.countDown();
+        }
+    }
+
+    public static class HangingInstaller extends ToolInstaller {
+
+        private final transient CountDownLatch release;
+
+        public HangingInstaller(CountDownLatch release) {
+            super(null);
+            this.release = release;
+        }
+
+        @Override
+        public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log) throws InterruptedException {
+            release.await();
+            return preferredLocation(tool, node);
+        }
+
+        @TestExtension("testHangingInstallerTimesOut")
+        public static class DescriptorImpl extends ToolInstallerDescriptor<HangingInstaller> {
+            @Override
+            public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+                return toolType == PowerShellInstallation.class;
+            }
+        }
+    }
+}
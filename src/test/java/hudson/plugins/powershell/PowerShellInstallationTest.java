@@ -2,6 +2,8 @@ package hudson.plugins.powershell;
 
 import java.util.Collections;
 
+import hudson.model.Label;
+import hudson.model.Node;
 import jenkins.model.Jenkins;
 import org.htmlunit.html.HtmlForm;
 import org.htmlunit.html.HtmlPage;
@@ -11,7 +13,9 @@ import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 @WithJenkins
 class PowerShellInstallationTest {
@@ -35,6 +39,55 @@ class PowerShellInstallationTest {
 
     }
 
+    @Test
+    void testSelectsByLabelAndVersion(JenkinsRule r) throws Exception {
+        Node windows = r.createOnlineSlave(Label.get("windows"));
+        Node linux = r.createOnlineSlave(Label.get("linux"));
+        PowerShellInstallation old = installation("old", "windows", "5.1");
+        PowerShellInstallation current = installation("current", "windows", "7.4");
+        PowerShellInstallation invalid = installation("invalid", "windows &&", "7.5");
+        PowerShellInstallation defaultLinux = installation(PowerShellInstallation.DEFAULT_LINUX_NAME, null, null);
+        PowerShellInstallation any = installation("any", null, "7.2");
+        PowerShellInstallation.DescriptorImpl descriptor = r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class);
+        descriptor.setInstallations(old, current, invalid, defaultLinux, any);
+
+        assertAll(
+                () -> assertEquals(current, descriptor.selectInstallation(windows, PowerShellInstallation.DEFAULT_LINUX_NAME, null)),
+                () -> assertEquals(defaultLinux, descriptor.selectInstallation(linux, PowerShellInstallation.DEFAULT_LINUX_NAME, null)),
+                () -> assertEquals(any, descriptor.selectInstallation(linux, PowerShellInstallation.DEFAULT_LINUX_NAME, "7")),
+                () -> assertEquals(current, descriptor.selectInstallation(windows, PowerShellInstallation.DEFAULT_LINUX_NAME, "7.3")),
+                () -> assertNull(descriptor.selectInstallation(linux, PowerShellInstallation.DEFAULT_LINUX_NAME, "7.4")),
+                () -> assertEquals(any, descriptor.selectInstallation(linux, PowerShellInstallation.DEFAULT_WINDOWS_NAME, null)),
+                () -> assertEquals(old, descriptor.getInstallation("old")));
+    }
+
+    @Test
+    void testIndexIsBuiltOncePerConfiguration(JenkinsRule r) {
+        PowerShellInstallation.DescriptorImpl descriptor = r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class);
+        descriptor.setInstallations(installation("installation1", null, null));
+
+        PowerShellInstallationIndex index = descriptor.getIndex();
+        assertEquals("installation1", descriptor.getInstallation("installation1").getName());
+        assertNull(descriptor.getInstallation("installation2"));
+        assertSame(index, descriptor.getIndex());
+
+        descriptor.setInstallations(installation("installation2", null, null));
+        assertNotSame(index, descriptor.getIndex());
+        assertEquals("installation2", descriptor.getInstallation("installation2").getName());
+
+        descriptor.save();
+        descriptor.load();
+        assertNotSame(index, descriptor.getIndex());
+        assertEquals("installation2", descriptor.getInstallation("installation2").getName());
+    }
+
+    private static PowerShellInstallation installation(String name, String label, String version) {
+        PowerShellInstallation installation = new PowerShellInstallation(name, null, "pwsh", Collections.emptyList());
+        installation.setLabel(label);
+        installation.setVersion(version);
+        return installation;
+    }
+
     @Test
     public void testReadResolveOldConfig() {
         String xml = """
@@ -0,0 +1,91 @@
+package hudson.plugins.powershell;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.model.Cause;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@WithJenkins
+class PowerShellModuleCacheTest {
+
+    @Test
+    void testCacheIsWarmedUpOnce(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        PowerShellInstallation.DescriptorImpl descriptor = r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class);
+        PowerShellInstallation installation = descriptor.getInstallation(StubPowerShell.INSTALLATION);
+        assertNotNull(installation);
+        installation.setPersistentModuleCache(true);
+        descriptor.setInstallations(installation);
+
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output $env:PSModuleAnalysisCachePath", null));
+
+        FreeStyleBuild build1 = r.buildAndAssertSuccess(project1);
+        FilePath directory = r.jenkins.getRootPath().child(PowerShellModuleCache.DIRECTORY);
+        FilePath[] caches = directory.list("*/" + PowerShellModuleCache.MARKER);
+        assertEquals(1, caches.length);
+        FilePath cache = caches[0].getParent();
+        r.assertLogContains(cache.child(PowerShellModuleCache.CACHE_FILE).getRemote(), build1);
+        assertTrue(build1.getAction(PowerShellTimingAction.class).getSteps().get(0).getPhases().stream()
+                .anyMatch(phase -> phase.getName().equals(PowerShellTimings.WARMUP)));
+
+        FreeStyleBuild build2 = r.buildAndAssertSuccess(project1);
+        r.assertLogContains(cache.child(PowerShellModuleCache.CACHE_FILE).getRemote(), build2);
+        assertTrue(build2.getAction(PowerShellTimingAction.class).getSteps().get(0).getPhases().stream()
+                .noneMatch(phase -> phase.getName().equals(PowerShellTimings.WARMUP)));
+    }
+
+    @Test
+    void testFailedWarmupIsRetriedLater(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        PowerShellInstallation.DescriptorImpl descriptor = r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class);
+        PowerShellInstallation installation = descriptor.getInstallation(StubPowerShell.INSTALLATION);
+        assertNotNull(installation);
+        installation.setPersistentModuleCache(true);
+        descriptor.setInstallations(installation);
+
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("STUB_COMMAND_EXIT", "3")));
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output 'done'", null));
+
+        FreeStyleBuild build1 = r.buildAndAssertSuccess(project1);
+        r.assertLogContains("failed with exit code 3", build1);
+        FilePath directory = r.jenkins.getRootPath().child(PowerShellModuleCache.DIRECTORY);
+        assertEquals(1, directory.list("*/" + PowerShellModuleCache.FAILED_MARKER).length);
+        assertEquals(0, directory.list("*/" + PowerShellModuleCache.MARKER).length);
+
+        FreeStyleBuild build2 = r.buildAndAssertSuccess(project1);
+        r.assertLogNotContains("failed with exit code", build2);
+        assertTrue(build2.getAction(PowerShellTimingAction.class).getSteps().get(0).getPhases().stream()
+                .noneMatch(phase -> phase.getName().equals(PowerShellTimings.WARMUP)));
+
+        // the failure expires, and the warmup succeeds once what made it fail is fixed
+        long retryAfter = PowerShellModuleCache.RETRY_AFTER;
+        PowerShellModuleCache.RETRY_AFTER = 0;
+        try {
+            FreeStyleBuild build3 = r.assertBuildStatusSuccess(project1.scheduleBuild2(0, new Cause.UserIdCause("user"),
+                    new ParametersAction(new StringParameterValue("STUB_COMMAND_EXIT", "0"))));
+            assertTrue(build3.getAction(PowerShellTimingAction.class).getSteps().get(0).getPhases().stream()
+                    .anyMatch(phase -> phase.getName().equals(PowerShellTimings.WARMUP)));
+        } finally {
+            PowerShellModuleCache.RETRY_AFTER = retryAfter;
+        }
+        assertEquals(0, directory.list("*/" + PowerShellModuleCache.FAILED_MARKER).length);
+        assertEquals(1, directory.list("*/" + PowerShellModuleCache.MARKER).length);
+    }
+}
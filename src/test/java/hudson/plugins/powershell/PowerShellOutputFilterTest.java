@@ -0,0 +1,55 @@
+package hudson.plugins.powershell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PowerShellOutputFilterTest {
+
+    @Test
+    void testDropsProgressRedraws() throws IOException {
+        assertEquals("Downloading 100%\nDone\r\n",
+                filter(new PowerShellOutputFilter(true, false, 0), "Downloading 1%\rDownloading 50%\rDownloading 100%\nDone\r\n"));
+        assertEquals("a\rb\n", filter(new PowerShellOutputFilter(false, false, 0), "a\rb\n"));
+    }
+
+    @Test
+    void testStripsEscapeSequences() throws IOException {
+        assertEquals("red plain title\n",
+                filter(new PowerShellOutputFilter(false, true, 0), "\u001b[31;1mred\u001b[0m plain \u001b]0;window\u0007title\n"));
+        assertEquals("\u001b[31mred\n", filter(new PowerShellOutputFilter(false, false, 0), "\u001b[31mred\n"));
+    }
+
+    @Test
+    void testCollapsesRepeatedLines() throws IOException {
+        String output = filter(new PowerShellOutputFilter(false, false, 2), "a\n".repeat(1000) + "b\n");
+        assertEquals("a\na\na\n" + Messages.PowerShell_RepeatedLines(997) + System.lineSeparator() + "b\n", output);
+    }
+
+    @Test
+    void testKeepsLongLinesAndIncompleteOutput() throws IOException {
+        String longLine = "x".repeat(PowerShellOutputFilter.MAX_LINE_LENGTH * 3);
+        assertEquals(longLine + "\n" + longLine + "\nprompt",
+                filter(new PowerShellOutputFilter(true, true, 1), longLine + "\n" + longLine + "\nprompt"));
+    }
+
+    @Test
+    void testDropsProgressPreferenceInScript() {
+        PowerShell powerShell = new PowerShell("Write-Output 'Hello'", false, false, null);
+        assertTrue(powerShell.getContents(new PowerShellOutputFilter(true, false, 0)).startsWith("$ProgressPreference=\"SilentlyContinue\""));
+        assertEquals(powerShell.getContents(), powerShell.getContents(new PowerShellOutputFilter(false, true, 0)));
+    }
+
+    private static String filter(PowerShellOutputFilter filter, String text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PowerShellOutputFilter.FilteredOutputStream filtered = filter.decorate(out);
+        filtered.write(text.getBytes(StandardCharsets.UTF_8));
+        filtered.finish();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
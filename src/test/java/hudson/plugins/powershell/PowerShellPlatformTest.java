@@ -0,0 +1,37 @@
+package hudson.plugins.powershell;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.slaves.DumbSlave;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+@WithJenkins
+class PowerShellPlatformTest {
+
+    @Test
+    void testAgentPlatformIsKnownOnConnection(JenkinsRule r) throws Exception {
+        DumbSlave agent = r.createOnlineSlave();
+        FilePath root = agent.getRootPath();
+        assertNotNull(root);
+
+        assertEquals(Functions.isWindows(), PowerShellPlatform.isWindows(root));
+        assertEquals(Functions.isWindows(), PowerShellPlatform.isWindows(r.jenkins.getRootPath()));
+    }
+
+    @Test
+    void testPlatformWinsOverPathGuess(JenkinsRule r) throws Exception {
+        DumbSlave agent = r.createOnlineSlave();
+        FilePath root = agent.getRootPath();
+        assertNotNull(root);
+
+        PowerShell powerShell = new PowerShell("script", true, true, null);
+        // a UNC path does not look like Windows, a drive letter does
+        assertEquals(Functions.isWindows(), powerShell.isRunningOnWindows(new FilePath(root.getChannel(), "\\\\server\\share\\ws")));
+        assertEquals(Functions.isWindows(), powerShell.isRunningOnWindows(new FilePath(root.getChannel(), "C:\\ws")));
+    }
+}
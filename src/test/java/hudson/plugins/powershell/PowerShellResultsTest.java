@@ -0,0 +1,54 @@
+package hudson.plugins.powershell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PowerShellResultsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReadsJsonLines() throws IOException {
+        Path file = directory.resolve("results.ndjson");
+        Files.writeString(file, "{\"version\":\"1.2\",\"count\":3}\r\n\nnot json\n{\"version\":\"1.3\",\"nested\":{\"a\":1},\"none\":null}\n",
+                StandardCharsets.UTF_8);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        Map<String, String> results = PowerShellResults.readLocally(file, new StreamTaskListener(log, StandardCharsets.UTF_8));
+
+        assertEquals(Map.of("version", "1.3", "count", "3", "nested", "{\"a\":1}", "none", ""), results);
+        assertTrue(log.toString(StandardCharsets.UTF_8).contains("line 3"), log.toString(StandardCharsets.UTF_8));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void testReadsUtf16WithByteOrderMark() throws IOException {
+        Path file = directory.resolve("results.ndjson");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(0xFF);
+        bytes.write(0xFE);
+        bytes.write("{\"name\":\"café\"}\r\n".getBytes(StandardCharsets.UTF_16LE));
+        Files.write(file, bytes.toByteArray());
+
+        assertEquals(Map.of("name", "café"), PowerShellResults.readLocally(file, TaskListener.NULL));
+    }
+
+    @Test
+    void testMissingFileHasNoResults() throws IOException {
+        assertTrue(PowerShellResults.readLocally(directory.resolve("missing.ndjson"), TaskListener.NULL).isEmpty());
+    }
+}
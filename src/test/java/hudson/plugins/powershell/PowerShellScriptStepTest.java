@@ -0,0 +1,45 @@
+package hudson.plugins.powershell;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class PowerShellScriptStepTest {
+
+    @Test
+    void testReturnsStdoutAndStatus(JenkinsRule r) throws Exception {
+        Assumptions.assumeTrue(isPowerShellAvailable());
+        WorkflowJob job = r.createProject(WorkflowJob.class, "p");
+        job.setDefinition(new CpsFlowDefinition("""
+                node {
+                  def out = powershellScript(script: "Write-Output 'Hello'", returnStdout: true)
+                  echo "stdout: ${out.trim()}"
+                  def status = powershellScript(script: 'exit 3', returnStatus: true)
+                  echo "status: ${status}"
+                }
+                """, true));
+
+        WorkflowRun run = r.buildAndAssertSuccess(job);
+
+        r.assertLogContains("stdout: Hello", run);
+        r.assertLogContains("status: 3", run);
+    }
+
+    private static boolean isPowerShellAvailable() {
+        return Stream.of(System.getenv("PATH").split(Pattern.quote(File.pathSeparator)))
+                .map(Paths::get)
+                .anyMatch(path -> Files.exists(path.resolve("pwsh")) || Files.exists(path.resolve("pwsh.exe"))
+                        || Files.exists(path.resolve("powershell.exe")));
+    }
+}
@@ -0,0 +1,89 @@
+package hudson.plugins.powershell;
+
+import java.util.concurrent.TimeUnit;
+
+import hudson.Functions;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@WithJenkins
+class PowerShellStartupStatsTest {
+
+    @Test
+    void testHistogramBuckets() {
+        assertEquals(0, PowerShellLatencyHistogram.bucket(TimeUnit.MICROSECONDS.toNanos(500)));
+        assertEquals(1, PowerShellLatencyHistogram.bucket(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(10, PowerShellLatencyHistogram.bucket(TimeUnit.MILLISECONDS.toNanos(1000)));
+        assertEquals(PowerShellLatencyHistogram.BUCKETS - 1, PowerShellLatencyHistogram.bucket(TimeUnit.DAYS.toNanos(1)));
+
+        PowerShellLatencyHistogram histogram = new PowerShellLatencyHistogram(TimeUnit.HOURS.toNanos(1));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1000));
+        long[] counts = histogram.getCounts();
+        assertEquals(4, PowerShellLatencyHistogram.percentile(counts, 50));
+        assertEquals(4, PowerShellLatencyHistogram.percentile(counts, 99));
+        assertEquals(1024, PowerShellLatencyHistogram.percentile(counts, 100));
+        assertEquals(-1, PowerShellLatencyHistogram.percentile(new long[PowerShellLatencyHistogram.BUCKETS], 50));
+    }
+
+    @Test
+    void testHistogramForgetsOldGenerations() throws Exception {
+        PowerShellLatencyHistogram histogram = new PowerShellLatencyHistogram(TimeUnit.MILLISECONDS.toNanos(50));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        Thread.sleep(150);
+        assertArrayEquals(new long[PowerShellLatencyHistogram.BUCKETS], histogram.getCounts());
+    }
+
+    @Test
+    void testStatsArePublished(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        PowerShellStartupStats.get().clear();
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output 'Hello World!'", null));
+        r.buildAndAssertSuccess(project1);
+        r.buildAndAssertSuccess(project1);
+
+        JSONObject json = r.getJSON("manage/powershell-stats/api/json?depth=1").getJSONObject();
+        JSONArray series = json.getJSONArray("series");
+        assertEquals(1, series.size());
+        JSONObject s = series.getJSONObject(0);
+        assertEquals(PowerShellStartupStats.BUILT_IN, s.getString("node"));
+        assertEquals(StubPowerShell.INSTALLATION, s.getString("installation"));
+        assertEquals(2, s.getLong("count"));
+
+        r.createWebClient().goTo("manage/powershell-stats/");
+    }
+
+    @Test
+    void testOnlyLaunchedStepsAreRecorded(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        PowerShellStartupStats.get().clear();
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell tooOld = StubPowerShell.step("Write-Output 'Hello World!'", null);
+        tooOld.setMinimumVersion("7.5");
+        project1.getBuildersList().add(tooOld);
+        r.buildAndAssertStatus(Result.FAILURE, project1);
+        assertTrue(PowerShellStartupStats.get().getSeries().isEmpty());
+
+        // a step naming no installation is recorded under the one it resolved to
+        project1.getBuildersList().replace(new PowerShell("Write-Output 'Hello World!'", true, false, null));
+        r.buildAndAssertSuccess(project1);
+        JSONArray series = r.getJSON("manage/powershell-stats/api/json?depth=1").getJSONObject().getJSONArray("series");
+        assertEquals(1, series.size());
+        assertEquals(StubPowerShell.INSTALLATION, series.getJSONObject(0).getString("installation"));
+    }
+}
@@ -0,0 +1,273 @@
+package hudson.plugins.powershell;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.Cause;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.model.Result;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
+import hudson.model.TaskListener;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures how many PowerShell steps per second the controller sustains, using {@link StubPowerShell}, and checks
+ * that concurrent builds of a job keep their output apart.
+ * <p>
+ * The load tests only run with {@code -Dpowershell.stress=true}; {@code -Dpowershell.stress.builds} and
+ * {@code -Dpowershell.stress.steps} set the number of concurrent builds and of steps per build,
+ * {@code -Dpowershell.stress.concurrentBuilds} the number of concurrent builds of a single job, and
+ * {@code -Dpowershell.stress.encodedCommandThreshold} the {@link PowerShell.DescriptorImpl#getEncodedCommandThreshold()
+ * threshold} below which scripts are passed on the command line.
+ */
+@WithJenkins
+class PowerShellStressTest {
+
+    private static final Queue<Long> STEP_LATENCIES = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        Assumptions.assumeFalse(Functions.isWindows());
+        STEP_LATENCIES.clear();
+    }
+
+    @Test
+    void testStubBuilds(JenkinsRule r) throws Exception {
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output $env:BUILD_NUMBER", null));
+        project1.getBuildersList().add(StubPowerShell.step("exit 123", 123));
+
+        FreeStyleBuild build = r.buildAndAssertStatus(Result.UNSTABLE, project1);
+        r.assertLogContains("1", build);
+    }
+
+    @Test
+    void testThroughput(JenkinsRule r) throws Exception {
+        Assumptions.assumeTrue(Boolean.getBoolean("powershell.stress"));
+        int builds = Integer.getInteger("powershell.stress.builds", 20);
+        int steps = Integer.getInteger("powershell.stress.steps", 10);
+        int encodedCommandThreshold = Integer.getInteger("powershell.stress.encodedCommandThreshold", 0);
+
+        StubPowerShell.install(r);
+        r.jenkins.getDescriptorByType(PowerShell.DescriptorImpl.class).setEncodedCommandThreshold(encodedCommandThreshold);
+        r.jenkins.setNumExecutors(builds);
+        List<FreeStyleProject> projects = new ArrayList<>();
+        for (int i = 0; i < builds; i++) {
+            FreeStyleProject project = r.createFreeStyleProject("project" + i);
+            for (int j = 0; j < steps; j++) {
+                project.getBuildersList().add(new TimedBuilder(StubPowerShell.step("Write-Output 'step " + j + "'", null)));
+            }
+            projects.add(project);
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeap = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 100, TimeUnit.MILLISECONDS);
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        long start = System.nanoTime();
+        List<QueueTaskFuture<FreeStyleBuild>> futures = new ArrayList<>();
+        for (FreeStyleProject project : projects) {
+            futures.add(project.scheduleBuild2(0));
+        }
+        for (QueueTaskFuture<FreeStyleBuild> future : futures) {
+            r.assertBuildStatusSuccess(future);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.shutdownNow();
+
+        long[] latencies = STEP_LATENCIES.stream().mapToLong(Long::longValue).sorted().toArray();
+        assertEquals(builds * steps, latencies.length);
+        System.out.printf("PowerShell stress: %d builds x %d steps in %.2f s, %.2f builds/s, %.2f steps/s, encoded command threshold %d%n",
+                builds, steps, seconds, builds / seconds, builds * steps / seconds, encodedCommandThreshold);
+        System.out.printf("PowerShell stress: step latency p50 %.1f ms, p99 %.1f ms%n",
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6);
+        System.out.printf("PowerShell stress: heap used %d MB before, %d MB peak%n",
+                heapBefore >> 20, peakHeap.get() >> 20);
+    }
+
+    @Test
+    void testConcurrentInstallationsHaveIsolatedLogs(JenkinsRule r) throws Exception {
+        r.jenkins.getDescriptorByType(PowerShell.DescriptorImpl.class).setPrewarm(false);
+        r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class).setInstallations(
+                new PowerShellInstallation(StubPowerShell.INSTALLATION, null, "pwsh",
+                        List.of(new InstallSourceProperty(List.of(new StubInstaller())))));
+        r.jenkins.setNumExecutors(0);
+        r.createOnlineSlave(Label.get("powershell"));
+        r.createOnlineSlave(Label.get("powershell"));
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.setConcurrentBuild(true);
+        project1.setAssignedLabel(Label.get("powershell"));
+        project1.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("RUN", "")));
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output 'done'", null));
+
+        QueueTaskFuture<FreeStyleBuild> first = project1.scheduleBuild2(0, new Cause.UserIdCause("user"),
+                new ParametersAction(new StringParameterValue("RUN", "1")));
+        QueueTaskFuture<FreeStyleBuild> second = project1.scheduleBuild2(0, new Cause.UserIdCause("user"),
+                new ParametersAction(new StringParameterValue("RUN", "2")));
+
+        for (FreeStyleBuild build : List.of(r.assertBuildStatusSuccess(first), r.assertBuildStatusSuccess(second))) {
+            String log = JenkinsRule.getLog(build);
+            assertEquals(1, log.split(StubInstaller.OUTPUT, -1).length - 1, log);
+            r.assertLogContains(StubInstaller.OUTPUT + build.getBuiltOnStr(), build);
+        }
+    }
+
+    @Test
+    void testConcurrentBuildsHaveIsolatedLogs(JenkinsRule r) throws Exception {
+        Assumptions.assumeTrue(Boolean.getBoolean("powershell.stress"));
+        int builds = Integer.getInteger("powershell.stress.concurrentBuilds", 200);
+
+        StubPowerShell.install(r);
+        r.jenkins.setNumExecutors(50);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.setConcurrentBuild(true);
+        project1.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("RUN", "")));
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output $env:BUILD_TAG", null));
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output $env:BUILD_TAG", null));
+
+        List<QueueTaskFuture<FreeStyleBuild>> futures = new ArrayList<>();
+        for (int i = 0; i < builds; i++) {
+            // distinct parameters keep the queue from merging the requests
+            futures.add(project1.scheduleBuild2(0, new Cause.UserIdCause("user"),
+                    new ParametersAction(new StringParameterValue("RUN", String.valueOf(i)))));
+        }
+
+        Pattern tag = Pattern.compile("^jenkins-project1-\\d+$", Pattern.MULTILINE);
+        for (QueueTaskFuture<FreeStyleBuild> future : futures) {
+            FreeStyleBuild build = r.assertBuildStatusSuccess(future);
+            String expected = "jenkins-project1-" + build.getNumber();
+            Matcher matcher = tag.matcher(JenkinsRule.getLog(build));
+            int found = 0;
+            while (matcher.find()) {
+                assertEquals(expected, matcher.group());
+                found++;
+            }
+            assertEquals(2, found);
+        }
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * Writes {@link StubPowerShell} into the tool directory of the node once both builds are installing at the same
+     * time, so that each prints while the other is running.
+     */
+    public static class StubInstaller extends ToolInstaller {
+
+        static final String OUTPUT = "Installing the stub on ";
+
+        private static final CyclicBarrier BOTH_INSTALLING = new CyclicBarrier(2);
+
+        public StubInstaller() {
+            super(null);
+        }
+
+        @Override
+        public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
+                throws IOException, InterruptedException {
+            try {
+                BOTH_INSTALLING.await(60, TimeUnit.SECONDS);
+            } catch (BrokenBarrierException | TimeoutException e) {
+                throw new IOException("The other build did not install at the same time", e);
+            }
+            log.getLogger().println(OUTPUT + node.getNodeName());
+            FilePath home = preferredLocation(tool, node);
+            home.mkdirs();
+            StubPowerShell.write(new File(home.getRemote()));
+            return home;
+        }
+
+        @TestExtension("testConcurrentInstallationsHaveIsolatedLogs")
+        public static class DescriptorImpl extends ToolInstallerDescriptor<StubInstaller> {
+            @Override
+            public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+                return toolType == PowerShellInstallation.class;
+            }
+        }
+    }
+
+    /**
+     * Runs a PowerShell step, recording how long it took.
+     */
+    public static class TimedBuilder extends Builder {
+
+        private final PowerShell powerShell;
+
+        public TimedBuilder(PowerShell powerShell) {
+            this.powerShell = powerShell;
+        }
+
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException {
+            long start = System.nanoTime();
+            try {
+                return powerShell.perform(build, launcher, listener);
+            } finally {
+                STEP_LATENCIES.add(System.nanoTime() - start);
+            }
+        }
+
+        @TestExtension("testThroughput")
+        public static class DescriptorImpl extends BuildStepDescriptor<Builder> {
+            @Override
+            public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+                return true;
+            }
+
+            @NonNull
+            @Override
+            public String getDisplayName() {
+                return "Timed PowerShell";
+            }
+        }
+    }
+}
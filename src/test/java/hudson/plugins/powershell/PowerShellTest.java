@@ -1,22 +1,53 @@
 package hudson.plugins.powershell;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import org.htmlunit.html.HtmlForm;
 import org.htmlunit.html.HtmlPage;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.ParametersDefinitionProperty;
 import hudson.model.Result;
+import hudson.model.StringParameterDefinition;
+import hudson.model.TaskListener;
 import hudson.model.queue.QueueTaskFuture;
+import hudson.remoting.Channel;
+import hudson.remoting.Request;
+import hudson.remoting.Response;
+import hudson.slaves.DumbSlave;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import net.sf.json.JSONObject;
 import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.TestExtension;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 /**
  * @author Kohsuke Kawaguchi
  */
@@ -166,6 +197,442 @@ public class PowerShellTest {
         r.assertBuildStatus(Result.UNSTABLE, build);
     }
 
+    @Test
+    void testInterruptedStepIsAborted(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output 'started'\nStart-Sleep 60", null));
+
+        FreeStyleBuild build = project1.scheduleBuild2(0).waitForStart();
+        r.waitForMessage("started", build);
+        build.getExecutor().interrupt();
+
+        r.assertBuildStatus(Result.ABORTED, r.waitForCompletion(build));
+        r.assertLogNotContains("PowerShell execution failed", build);
+    }
+
+    @Test
+    void testPooledHostConfigRoundtrip(JenkinsRule r) throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        PowerShell orig = new PowerShell("script", true, true, null);
+        orig.setUsePooledHost(true);
+        p.getBuildersList().add(orig);
+
+        try (JenkinsRule.WebClient webClient = r.createWebClient()) {
+            HtmlPage page = webClient.getPage(p, "configure");
+            HtmlForm form = page.getFormByName("config");
+            r.submit(form);
+        }
+
+        r.assertEqualBeans(orig, p.getBuildersList().get(PowerShell.class), "command,usePooledHost");
+    }
+
+    @Test
+    void testPooledHostBuilds(JenkinsRule r) throws Exception {
+        Assumptions.assumeTrue(isPowerShellAvailable());
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell success = new PowerShell("$global:leaked = 'leaked'; Write-Output \"Hello $env:BUILD_NUMBER\"", true, true, null);
+        success.setUsePooledHost(true);
+        PowerShell isolated = new PowerShell("if ($global:leaked) { exit 2 }", true, true, null);
+        isolated.setUsePooledHost(true);
+        PowerShell unstable = new PowerShell("exit 123", true, true, 123);
+        unstable.setUsePooledHost(true);
+        project1.getBuildersList().add(success);
+        project1.getBuildersList().add(isolated);
+        project1.getBuildersList().add(unstable);
+
+        FreeStyleBuild build = r.buildAndAssertStatus(Result.UNSTABLE, project1);
+        r.assertLogContains("Hello 1", build);
+    }
+
+    @Test
+    void testSessionGroupsAdjacentSteps(JenkinsRule r) throws Exception {
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell first = sessionStep("exit 0", null);
+        PowerShell second = sessionStep("exit 0", null);
+        PowerShell alone = new PowerShell("exit 0", true, true, null);
+        PowerShell third = sessionStep("exit 0", null);
+        project1.getBuildersList().add(first);
+        project1.getBuildersList().add(second);
+        project1.getBuildersList().add(alone);
+        project1.getBuildersList().add(third);
+        FreeStyleBuild build = new FreeStyleBuild(project1);
+
+        assertEquals(PowerShellSessions.getSession(build, first), PowerShellSessions.getSession(build, second));
+        assertNotEquals(PowerShellSessions.getSession(build, first), PowerShellSessions.getSession(build, third));
+        assertFalse(PowerShellSessions.isLast(build, first));
+        assertTrue(PowerShellSessions.isLast(build, second));
+        assertTrue(PowerShellSessions.isLast(build, third));
+    }
+
+    @Test
+    void testSessionBuilds(JenkinsRule r) throws Exception {
+        Assumptions.assumeTrue(isPowerShellAvailable());
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(sessionStep("$greeting = 'Hello'; function Get-Target { 'session' }", null));
+        project1.getBuildersList().add(sessionStep("Write-Output \"$greeting $(Get-Target) $env:BUILD_NUMBER\"", null));
+        // Stop On Errors of the previous steps must not apply
+        PowerShell continueOnError = new PowerShell("Write-Error 'ignored'", false, true, null);
+        continueOnError.setShareSession(true);
+        project1.getBuildersList().add(continueOnError);
+        project1.getBuildersList().add(sessionStep("exit 123", 123));
+        project1.getBuildersList().add(sessionStep("Write-Output \"exit code $LASTEXITCODE\"", null));
+
+        FreeStyleBuild build = r.buildAndAssertStatus(Result.UNSTABLE, project1);
+        r.assertLogContains("Hello session 1", build);
+        r.assertLogContains("exit code 0", build);
+    }
+
+    private static PowerShell sessionStep(String command, Integer unstableReturn) {
+        PowerShell powerShell = new PowerShell(command, true, true, unstableReturn);
+        powerShell.setShareSession(true);
+        return powerShell;
+    }
+
+    @Test
+    void testEncodedCommandSkipsScriptFile(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        r.jenkins.getDescriptorByType(PowerShell.DescriptorImpl.class).setEncodedCommandThreshold(200);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output $env:BUILD_TAG", null));
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output 'long'\n" + "#".repeat(200), null));
+        project1.getBuildersList().add(StubPowerShell.step("exit 123", 123));
+
+        FreeStyleBuild build = r.buildAndAssertStatus(Result.UNSTABLE, project1);
+        r.assertLogContains("jenkins-project1-1", build);
+        r.assertLogContains("long", build);
+        r.assertLogContains("-EncodedCommand ********", build);
+        PowerShellTimingAction action = build.getAction(PowerShellTimingAction.class);
+        assertTrue(action.getSteps().get(0).getPhases().stream().noneMatch(phase -> phase.getName().equals(PowerShellTimings.STAGING)));
+        assertTrue(action.getSteps().get(1).getPhases().stream().anyMatch(phase -> phase.getName().equals(PowerShellTimings.STAGING)));
+    }
+
+    @Test
+    void testTruncatedOutputIsArchived(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            script.append("Write-Output 'line ").append(i).append("'\n");
+        }
+        PowerShell powerShell = StubPowerShell.step(script.toString(), null);
+        powerShell.setMaxOutputSize(1);
+        project1.getBuildersList().add(powerShell);
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+
+        r.assertLogContains("line 0", build);
+        r.assertLogNotContains("line 500", build);
+        r.assertLogContains("line 999", build);
+        r.assertLogContains("bytes of output left out", build);
+        assertEquals(1, build.getArtifacts().size());
+        assertTrue(build.getArtifacts().get(0).relativePath.startsWith("powershell/"));
+        assertEquals(0, project1.getSomeWorkspace().sibling(project1.getSomeWorkspace().getName() + "@tmp").list("*.gz").length);
+    }
+
+    @Test
+    void testResultsArePassedToLaterSteps(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(StubPowerShell.step(
+                "Add-Content $env:JENKINS_POWERSHELL_RESULTS '{\"version\":\"1.2\",\"not a variable\":1}'", null));
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output $env:POWERSHELL_RESULT_version", null));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+
+        r.assertLogContains("1.2", build);
+        PowerShellResultsAction action = build.getAction(PowerShellResultsAction.class);
+        assertEquals("1.2", action.getResults().get("version"));
+        assertEquals("1", action.getResults().get("not a variable"));
+        JSONObject json = r.getJSON(build.getUrl() + "api/json?tree=actions[results]").getJSONObject();
+        assertTrue(json.toString().contains("\"version\":\"1.2\""), json.toString());
+    }
+
+    @Test
+    void testStepIsSkippedWhenInputsAreUnchanged(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("OUTPUT", "generated.txt")));
+        PowerShell powerShell = StubPowerShell.step("Add-Content $env:OUTPUT 'generated'", null);
+        powerShell.setStepCache(new PowerShellStepCache("*.json", "generated.txt"));
+        project1.getBuildersList().add(powerShell);
+        FilePath ws = r.jenkins.getWorkspaceFor(project1);
+        ws.child("input.json").write("{}", "UTF-8");
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+        r.assertLogContains("Kept 1 output files", build);
+
+        ws.child("generated.txt").delete();
+        build = r.buildAndAssertSuccess(project1);
+        r.assertLogContains("Inputs unchanged", build);
+        assertEquals("generated\n", ws.child("generated.txt").readToString());
+
+        ws.child("input.json").write("{\"changed\":true}", "UTF-8");
+        build = r.buildAndAssertSuccess(project1);
+        r.assertLogNotContains("Inputs unchanged", build);
+        assertEquals("generated\ngenerated\n", ws.child("generated.txt").readToString());
+    }
+
+    @Test
+    void testSkippedStepHandsOverItsResults(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell powerShell = StubPowerShell.step("Add-Content $env:JENKINS_POWERSHELL_RESULTS '{\"version\":\"1.2\"}'", null);
+        powerShell.setStepCache(new PowerShellStepCache(null, null));
+        project1.getBuildersList().add(powerShell);
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output $env:POWERSHELL_RESULT_version", null));
+
+        r.buildAndAssertSuccess(project1);
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+
+        r.assertLogContains("Inputs unchanged", build);
+        r.assertLogContains("1.2", build);
+        assertEquals("1.2", build.getAction(PowerShellResultsAction.class).getResults().get("version"));
+    }
+
+    @Test
+    void testFanOutInputsArePartOfStepCacheKey(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell powerShell = StubPowerShell.step("Write-Output $env:JENKINS_POWERSHELL_INPUT", null);
+        powerShell.setStepCache(new PowerShellStepCache(null, null));
+        powerShell.setFanOut(new PowerShellFanOut("alpha\n", 1));
+        project1.getBuildersList().add(powerShell);
+
+        r.buildAndAssertSuccess(project1);
+        r.assertLogContains("Inputs unchanged", r.buildAndAssertSuccess(project1));
+
+        powerShell.setFanOut(new PowerShellFanOut("alpha\nbeta\n", 1));
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+        r.assertLogNotContains("Inputs unchanged", build);
+        r.assertLogContains("[beta] beta", build);
+
+        powerShell.setFanOut(new PowerShellFanOut("alpha\nbeta\n", 2));
+        r.assertLogNotContains("Inputs unchanged", r.buildAndAssertSuccess(project1));
+    }
+
+    @Test
+    void testFanOutRunsOncePerInput(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell powerShell = StubPowerShell.step("Write-Output $env:JENKINS_POWERSHELL_INPUT", null);
+        powerShell.setFanOut(new PowerShellFanOut("alpha\nbeta\ngamma\n", 2));
+        project1.getBuildersList().add(powerShell);
+        PowerShell unstable = StubPowerShell.step("exit 123", 123);
+        unstable.setFanOut(new PowerShellFanOut("alpha\nbeta\n", 2));
+        project1.getBuildersList().add(unstable);
+
+        FreeStyleBuild build = r.buildAndAssertStatus(Result.UNSTABLE, project1);
+
+        r.assertLogContains("[alpha] alpha", build);
+        r.assertLogContains("[beta] beta", build);
+        r.assertLogContains("[gamma] gamma", build);
+    }
+
+    @Test
+    void testScriptSources(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        PowerShellScriptLibrary.get().setScripts(List.of(new PowerShellScriptLibrary.Script("greet", "Write-Output 'from the library'")));
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell fromWorkspace = StubPowerShell.step("", null);
+        fromWorkspace.setScriptSource(new PowerShellScriptSource.WorkspaceFile("scripts/build.ps1"));
+        project1.getBuildersList().add(fromWorkspace);
+        PowerShell fromLibrary = StubPowerShell.step("", null);
+        fromLibrary.setScriptSource(new PowerShellScriptSource.LibraryScript("greet"));
+        project1.getBuildersList().add(fromLibrary);
+        r.jenkins.getWorkspaceFor(project1).child("scripts/build.ps1").write("Write-Output 'from the workspace'", "UTF-8");
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+
+        r.assertLogContains("from the workspace", build);
+        r.assertLogContains("from the library", build);
+        assertFalse(project1.getConfigFile().asString().contains("from the library"));
+        PowerShellScriptLibrary.get().save();
+        File libraryConfig = new File(r.jenkins.getRootDir(), PowerShellScriptLibrary.class.getName() + ".xml");
+        assertFalse(Files.readString(libraryConfig.toPath()).contains("from the library"));
+
+        fromLibrary.setScriptSource(new PowerShellScriptSource.LibraryScript("missing"));
+        build = r.buildAndAssertStatus(Result.FAILURE, project1);
+        r.assertLogContains("missing not found in the script library", build);
+    }
+
+    @Test
+    void testVersionConstraintFailsBeforeLaunching(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell step = StubPowerShell.step("Write-Output $env:POWERSHELL_VERSION", null);
+        step.setEdition(PowerShellVersion.CORE);
+        step.setMinimumVersion("7.2");
+        project1.getBuildersList().add(step);
+
+        // the stub reports PowerShell Core 7.4.0
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+        r.assertLogContains("7.4.0", build);
+
+        step.setMinimumVersion("7.5");
+        build = r.buildAndAssertStatus(Result.FAILURE, project1);
+        r.assertLogContains("is PowerShell 7.4.0 Core (x64), but the step requires PowerShell Core 7.5", build);
+        r.assertLogNotContains("-NonInteractive", build);
+    }
+
+    @Test
+    void testStepsArePreparedWhenBuildStarts(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        r.jenkins.getDescriptorByType(PowerShell.DescriptorImpl.class).setCacheScripts(true);
+        PowerShellExecutableCache.get().invalidateAll();
+        long misses = PowerShellExecutableCache.get().getMisses();
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell step = StubPowerShell.step("Write-Output 'prepared'", null);
+        FilePath script = PowerShellScriptCache.getScript(r.jenkins.getRootPath(), step.getContents(null), ".ps1");
+        project1.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                // resolution comes before staging, which happens in the background while this step runs
+                for (int i = 0; i < 100 && !script.exists(); i++) {
+                    Thread.sleep(100);
+                }
+                return script.exists() && PowerShellExecutableCache.get().getMisses() == misses + 1;
+            }
+        });
+        project1.getBuildersList().add(step);
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+
+        r.assertLogContains("prepared", build);
+        assertEquals(misses + 1, PowerShellExecutableCache.get().getMisses());
+    }
+
+    @Test
+    void testFailedPreparationIsRedoneByStep(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        r.jenkins.getDescriptorByType(PowerShell.DescriptorImpl.class).setPrewarm(false);
+        r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class).setInstallations(
+                new PowerShellInstallation(StubPowerShell.INSTALLATION, null, "pwsh",
+                        List.of(new InstallSourceProperty(List.of(new FailingOnceInstaller())))));
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        PowerShell step = StubPowerShell.step("Write-Output 'installed'", null);
+        project1.getBuildersList().add(step);
+
+        assertThrows(IOException.class, () -> step.prewarm(r.jenkins, TaskListener.NULL));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+        r.assertLogContains(FailingOnceInstaller.OUTPUT, build);
+        r.assertLogContains("installed", build);
+    }
+
+    @Test
+    void testCachedScriptIsStagedOnce(JenkinsRule r) throws Exception {
+        r.jenkins.getDescriptorByType(PowerShell.DescriptorImpl.class).setCacheScripts(true);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(new PowerShell("echo 'Hello World!'", true, true, null));
+
+        project1.scheduleBuild2(0).get();
+        project1.scheduleBuild2(0).get();
+
+        FilePath scripts = r.jenkins.getRootPath().child(PowerShellScriptCache.DIRECTORY);
+        assertEquals(1, scripts.list("*.ps1").length);
+        assertEquals(0, project1.getSomeWorkspace().list("*.ps1").length);
+    }
+
+    @Test
+    void testSingleChannelCallPerStep(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        // preparing the steps in the background would add calls at random points
+        r.jenkins.getDescriptorByType(PowerShell.DescriptorImpl.class).setPrewarm(false);
+        DumbSlave agent = r.createOnlineSlave();
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.setAssignedNode(agent);
+        PowerShell step = StubPowerShell.step("Write-Output 'Hello World!'", null);
+        project1.getBuildersList().add(step);
+        // resolves the installation and probes its version for the agent
+        r.buildAndAssertSuccess(project1);
+
+        AtomicLong requests = new AtomicLong();
+        ((Channel) agent.getChannel()).addListener(new Channel.Listener() {
+            @Override
+            public void onResponse(Channel channel, Request<?, ?> req, Response<?, ?> rsp, long totalTime) {
+                requests.incrementAndGet();
+            }
+        });
+        project1.getBuildersList().remove(step);
+        r.buildAndAssertSuccess(project1);
+        long withoutStep = requests.getAndSet(0);
+        project1.getBuildersList().add(step);
+        r.buildAndAssertSuccess(project1);
+
+        assertEquals(withoutStep + 1, requests.get());
+    }
+
+    @Test
+    void testPhaseTimingsAreRecorded(JenkinsRule r) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        StubPowerShell.install(r);
+        FreeStyleProject project1 = r.createFreeStyleProject("project1");
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output 'step 1'", null));
+        project1.getBuildersList().add(StubPowerShell.step("Write-Output 'step 2'", null));
+
+        FreeStyleBuild build = r.buildAndAssertSuccess(project1);
+
+        r.assertLogContains("PowerShell step timings: resolution", build);
+        PowerShellTimingAction action = build.getAction(PowerShellTimingAction.class);
+        assertNotNull(action);
+        assertEquals(2, action.getSteps().size());
+        List<String> phases = action.getSteps().get(1).getPhases().stream().map(PowerShellTimingAction.Phase::getName).toList();
+        assertTrue(phases.containsAll(List.of(PowerShellTimings.RESOLUTION, PowerShellTimings.STAGING,
+                PowerShellTimings.STARTUP, PowerShellTimings.SCRIPT, PowerShellTimings.CLEANUP)), phases.toString());
+
+        JSONObject json = r.getJSON(build.getUrl() + "api/json?tree=actions[steps[number,phases[name,millis]]]").getJSONObject();
+        assertTrue(json.toString().contains("\"name\":\"script\""), json.toString());
+    }
+
+    /**
+     * Fails its first installation, then writes {@link StubPowerShell} into the tool directory of the node.
+     */
+    public static class FailingOnceInstaller extends ToolInstaller {
+
+        static final String OUTPUT = "Installing the stub";
+
+        private static final AtomicBoolean FAILED = new AtomicBoolean();
+
+        public FailingOnceInstaller() {
+            super(null);
+        }
+
+        @Override
+        public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
+                throws IOException, InterruptedException {
+            if (FAILED.compareAndSet(false, true)) {
+                throw new IOException("Download failed");
+            }
+            log.getLogger().println(OUTPUT);
+            FilePath home = preferredLocation(tool, node);
+            home.mkdirs();
+            StubPowerShell.write(new File(home.getRemote()));
+            return home;
+        }
+
+        @TestExtension("testFailedPreparationIsRedoneByStep")
+        public static class DescriptorImpl extends ToolInstallerDescriptor<FailingOnceInstaller> {
+            @Override
+            public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+                return toolType == PowerShellInstallation.class;
+            }
+        }
+    }
+
     private boolean isPowerShellAvailable() {
         return Stream.of(System.getenv("PATH").split(Pattern.quote(File.pathSeparator)))
                 .map(Paths::get)
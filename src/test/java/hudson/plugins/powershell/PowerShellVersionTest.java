@@ -0,0 +1,91 @@
+package hudson.plugins.powershell;
+
+import java.io.File;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PowerShellVersionTest {
+
+    @Test
+    void testParsesProbeOutput() {
+        PowerShellVersion core = PowerShellVersion.parse("PSVERSION|Core|7.4.2|X64");
+        assertNotNull(core);
+        assertEquals("Core 7.4.2 x64", core.getEdition() + " " + core.getVersion() + " " + core.getArchitecture());
+
+        // Windows PowerShell 5.0 and older have no PSEdition, and old .NET no RuntimeInformation
+        PowerShellVersion desktop = PowerShellVersion.parse("banner PSVERSION||4.0|AMD64\r");
+        assertNotNull(desktop);
+        assertEquals("Desktop 4.0 x64", desktop.getEdition() + " " + desktop.getVersion() + " " + desktop.getArchitecture());
+
+        assertAll(
+                () -> assertNull(PowerShellVersion.parse("")),
+                () -> assertNull(PowerShellVersion.parse("PSVERSION|Core||x64")),
+                () -> assertNull(PowerShellVersion.parse("PSVERSION|Core|7.4")));
+    }
+
+    @Test
+    void testSatisfiesConstraints() {
+        PowerShellVersion version = new PowerShellVersion(PowerShellVersion.CORE, "7.4.2", "x64");
+        assertAll(
+                () -> assertTrue(version.satisfies(null, null)),
+                () -> assertTrue(version.satisfies("7.4", "core")),
+                () -> assertTrue(version.satisfies("7.4.2", null)),
+                () -> assertFalse(version.satisfies("7.5", null)),
+                () -> assertFalse(version.satisfies(null, PowerShellVersion.DESKTOP)),
+                () -> assertFalse(new PowerShellVersion(PowerShellVersion.DESKTOP, "5.1.19041.4291", "x64").satisfies("7", null)));
+    }
+
+    @Test
+    void testBuildEnvironmentKeepsBuildVariables() {
+        EnvVars env = new EnvVars(PowerShellVersion.VERSION_VARIABLE, "mine");
+        new PowerShellVersion(PowerShellVersion.CORE, "7.4.2", "").buildEnvironment(env);
+        assertEquals("mine", env.get(PowerShellVersion.VERSION_VARIABLE));
+        assertEquals(PowerShellVersion.CORE, env.get(PowerShellVersion.EDITION_VARIABLE));
+        assertFalse(env.containsKey(PowerShellVersion.ARCHITECTURE_VARIABLE));
+    }
+
+    @Test
+    void testFailedProbeIsKeptForAWhile(@TempDir File home) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        FilePath root = new FilePath(home);
+        String executable = new File(home, "pwsh").getAbsolutePath();
+        Launcher launcher = new Launcher.LocalLauncher(TaskListener.NULL);
+
+        assertNull(PowerShellVersion.of(root, executable, launcher, new EnvVars()));
+        StubPowerShell.write(home);
+        assertNull(PowerShellVersion.of(root, executable, launcher, new EnvVars()));
+    }
+
+    @Test
+    void testFailedProbeIsRepeatedOnceExpired(@TempDir File home) throws Exception {
+        Assumptions.assumeFalse(Functions.isWindows());
+        FilePath root = new FilePath(home);
+        String executable = new File(home, "pwsh").getAbsolutePath();
+        Launcher launcher = new Launcher.LocalLauncher(TaskListener.NULL);
+        long ttl = PowerShellVersion.NEGATIVE_TTL;
+        PowerShellVersion.NEGATIVE_TTL = 0;
+        try {
+            assertNull(PowerShellVersion.of(root, executable, launcher, new EnvVars()));
+            StubPowerShell.write(home);
+            PowerShellVersion version = PowerShellVersion.of(root, executable, launcher, new EnvVars());
+            assertNotNull(version);
+            assertEquals("7.4.0", version.getVersion());
+        } finally {
+            PowerShellVersion.NEGATIVE_TTL = ttl;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package hudson.plugins.powershell;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * A tiny POSIX shell stand-in for {@code pwsh}, so builds can run where PowerShell is not installed.
+ * <p>
+ * It understands just enough of a script to mimic PowerShell: {@code echo} and {@code Write-Output} lines are
+ * printed, with {@code $env:NAME} expanded, {@code Add-Content $env:NAME 'text'} appends a line to the file named
+ * by a variable, {@code Start-Sleep <seconds>} waits and {@code exit <number>} ends the script with that exit code.
+ * Scripts can also be given with {@code -EncodedCommand}, as long as they are ASCII. Commands given with
+ * {@code -Command} are ignored, except for the version probe of {@link PowerShellVersion}, to which the stub answers
+ * that it is PowerShell Core 7.4.0, and exit with {@code STUB_COMMAND_EXIT}, 0 if it is not set.
+ */
+final class StubPowerShell {
+
+    static final String INSTALLATION = "stub";
+
+    private static final String SCRIPT = """
+            #!/bin/sh
+            script=
+            trap 'rm -f "$encoded"' EXIT
+            while [ $# -gt 0 ]; do
+              case "$1" in
+                -File) script="$2"; shift ;;
+                -EncodedCommand)
+                  encoded=$(mktemp)
+                  printf '%s' "$2" | base64 -d | tr -d '\\000' > "$encoded"
+                  script="$encoded"; shift ;;
+                -Command)
+                  case "$2" in *PSVERSION*) printf '%s\\n' "PSVERSION|Core|7.4.0|x64" ;; esac
+                  exit "${STUB_COMMAND_EXIT:-0}" ;;
+              esac
+              shift
+            done
+            while IFS= read -r line || [ -n "$line" ]; do
+              line=$(printf '%s' "$line" | tr -d '\\r')
+              case "$line" in
+                "echo "*|"Write-Output "*)
+                  text=$(printf '%s' "${line#* }" | sed -e "s/^[\\"']//" -e "s/[\\"']$//")
+                  case "$text" in
+                    '$env:'*) name=${text#\\$env:}; eval "text=\\${$name}" ;;
+                  esac
+                  printf '%s\\n' "$text" ;;
+                "Add-Content \\$env:"*)
+                  rest=${line#Add-Content \\$env:}
+                  eval "target=\\${${rest%% *}}"
+                  printf '%s\\n' "$(printf '%s' "${rest#* }" | sed -e "s/^'//" -e "s/'$//")" >> "$target" ;;
+                "Start-Sleep "[0-9]*)
+                  sleep "${line#Start-Sleep }" ;;
+                "exit "[0-9]*)
+                  exit "${line#exit }" ;;
+              esac
+            done < "$script"
+            exit 0
+            """;
+
+    private StubPowerShell() {
+    }
+
+    /**
+     * Writes the stub into a new directory and configures it as the {@value #INSTALLATION} installation.
+     */
+    static void install(JenkinsRule r) throws IOException {
+        File home = Files.createTempDirectory(r.jenkins.getRootDir().toPath(), "stub-pwsh").toFile();
+        write(home);
+        r.jenkins.getDescriptorByType(PowerShellInstallation.DescriptorImpl.class).setInstallations(
+                new PowerShellInstallation(INSTALLATION, home.getAbsolutePath(), "pwsh", Collections.emptyList()));
+    }
+
+    /**
+     * Writes the stub as {@code pwsh} into {@code home}.
+     */
+    static void write(File home) throws IOException {
+        File executable = new File(home, "pwsh");
+        Files.writeString(executable.toPath(), SCRIPT, StandardCharsets.UTF_8);
+        if (!executable.setExecutable(true)) {
+            throw new IOException("Unable to make " + executable + " executable");
+        }
+    }
+
+    static PowerShell step(String command, Integer unstableReturn) {
+        PowerShell powerShell = new PowerShell(command, true, false, unstableReturn);
+        powerShell.setInstallation(INSTALLATION);
+        return powerShell;
+    }
+}